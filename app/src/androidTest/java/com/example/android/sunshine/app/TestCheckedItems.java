@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+
+/*
+    Checks that the selection store keeps its items in order, follows them as items are inserted,
+    removed and moved around them, and comes back the same from its saved state.
+ */
+public class TestCheckedItems extends AndroidTestCase {
+
+    public void testCheckAndUncheck() {
+        CheckedItems checked = new CheckedItems();
+        // More than the initial capacity, out of order.
+        for (int position = 20; position >= 0; position -= 2) {
+            checked.check(position, 100 + position);
+        }
+        assertEquals(11, checked.size());
+        for (int i = 0; i < checked.size(); i++) {
+            assertEquals(2 * i, checked.positionAt(i));
+        }
+        assertTrue(checked.isChecked(10));
+        assertFalse(checked.isChecked(11));
+
+        checked.uncheck(10);
+        checked.uncheck(11);
+        assertFalse(checked.isChecked(10));
+        assertEquals(10, checked.size());
+    }
+
+    public void testFollowsInsertAndRemove() {
+        CheckedItems checked = new CheckedItems();
+        checked.check(2, 12);
+        checked.check(5, 15);
+        checked.check(9, 19);
+
+        checked.onInserted(3, 4);
+        assertTrue(checked.isChecked(2));
+        assertTrue(checked.isChecked(9));
+        assertTrue(checked.isChecked(13));
+
+        // Takes out the item at 9 along with its neighbours.
+        checked.onRemoved(8, 3);
+        assertEquals(2, checked.size());
+        assertTrue(checked.isChecked(2));
+        assertTrue(checked.isChecked(10));
+    }
+
+    public void testFollowsMove() {
+        CheckedItems checked = new CheckedItems();
+        checked.check(1, 11);
+        checked.check(4, 14);
+
+        checked.onMoved(1, 6);
+        assertEquals(2, checked.size());
+        assertEquals(3, checked.positionAt(0));
+        assertEquals(6, checked.positionAt(1));
+
+        // An unchecked item moving around in front of the others leaves them where they were.
+        checked.onMoved(0, 2);
+        assertTrue(checked.isChecked(3));
+        assertTrue(checked.isChecked(6));
+    }
+
+    public void testSaveAndRestore() {
+        CheckedItems checked = new CheckedItems();
+        checked.check(7, Long.MAX_VALUE);
+        checked.check(3, 42);
+
+        long[] state = checked.toLongArray();
+        assertEquals(4, state.length);
+
+        CheckedItems restored = new CheckedItems();
+        restored.check(1, 1);
+        restored.fromLongArray(state);
+        assertEquals(2, restored.size());
+        assertEquals(3, restored.positionAt(0));
+        assertEquals(7, restored.positionAt(1));
+        assertEquals(Long.MAX_VALUE, restored.toLongArray()[2]);
+    }
+}
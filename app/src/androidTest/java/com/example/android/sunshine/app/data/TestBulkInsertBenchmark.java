@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.Suppress;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Compares WeatherProvider's compiled-statement bulk insert with the SQLiteDatabase.insert loop
+    it replaced.  The timings only go to the log; what the test asserts is that both paths store
+    the same rows.
+ */
+public class TestBulkInsertBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestBulkInsertBenchmark.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private WeatherDbHelper mDbHelper;
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.closeProviderDatabase(mContext);
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDbHelper = new WeatherDbHelper(mContext);
+        mLocationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testBulkInsertMatchesInsert() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        insertWithDbInsert(db, 10);
+        Cursor expected = queryAll(db);
+        // Fill the cursor before the rows it reads go away.
+        assertEquals(10, expected.getCount());
+        clearWeather(db);
+
+        insertWithInserter(db, 10);
+        Cursor actual = queryAll(db);
+
+        assertEquals(expected.getCount(), actual.getCount());
+        while (expected.moveToNext()) {
+            assertTrue(actual.moveToNext());
+            for (int i = 0; i < expected.getColumnCount(); i++) {
+                if (expected.getColumnName(i).equals(WeatherEntry._ID)) {
+                    continue;
+                }
+                assertEquals("Column " + expected.getColumnName(i) + " differs",
+                        expected.getString(i), actual.getString(i));
+            }
+        }
+        expected.close();
+        actual.close();
+    }
+
+    public void testBenchmark1k() {
+        benchmark(1000);
+    }
+
+    public void testBenchmark10k() {
+        benchmark(10 * 1000);
+    }
+
+    /*
+        Inserts 100k rows twice, which takes long enough that it stays out of the suite; the
+        1k and 10k runs check the same things.  Delete the @Suppress locally to time it.
+     */
+    @Suppress
+    public void testBenchmark100k() {
+        benchmark(100 * 1000);
+    }
+
+    private void benchmark(int rows) {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+
+        long start = System.nanoTime();
+        assertEquals(rows, insertWithDbInsert(db, rows));
+        long insertNanos = System.nanoTime() - start;
+        clearWeather(db);
+
+        start = System.nanoTime();
+        assertEquals(rows, insertWithInserter(db, rows));
+        long inserterNanos = System.nanoTime() - start;
+        clearWeather(db);
+
+        Log.i(LOG_TAG, rows + " rows: SQLiteDatabase.insert " + (insertNanos / 1000000) +
+                "ms, compiled statement " + (inserterNanos / 1000000) + "ms");
+    }
+
+    /*
+        The path WeatherProvider.bulkInsert used to take.
+     */
+    private int insertWithDbInsert(SQLiteDatabase db, int rows) {
+        ContentValues values = TestUtilities.createWeatherValues(mLocationRowId);
+        int count = 0;
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < rows; i++) {
+                setDate(values, i);
+                long dateValue = values.getAsLong(WeatherEntry.COLUMN_DATE);
+                values.put(WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(dateValue));
+                if (db.insert(WeatherEntry.TABLE_NAME, null, values) != -1) {
+                    count++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return count;
+    }
+
+    private int insertWithInserter(SQLiteDatabase db, int rows) {
+        ContentValues values = TestUtilities.createWeatherValues(mLocationRowId);
+        int count = 0;
+        db.beginTransaction();
+        WeatherBulkInserter inserter = new WeatherBulkInserter(db, WeatherEntry.TABLE_NAME);
+        try {
+            for (int i = 0; i < rows; i++) {
+                setDate(values, i);
+                if (inserter.insert(values) != -1) {
+                    count++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            inserter.close();
+            db.endTransaction();
+        }
+        return count;
+    }
+
+    // One row per day, so the rows never collide on (date, location_id).  The date is given in
+    // the middle of the day so that normalizing it has something to do.
+    private static void setDate(ContentValues values, int day) {
+        values.put(WeatherEntry.COLUMN_DATE,
+                TestUtilities.TEST_DATE * 1000 + day * DAY_IN_MILLIS + DAY_IN_MILLIS / 2);
+    }
+
+    private static Cursor queryAll(SQLiteDatabase db) {
+        return db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+    }
+
+    private static void clearWeather(SQLiteDatabase db) {
+        db.delete(WeatherEntry.TABLE_NAME, null, null);
+    }
+}
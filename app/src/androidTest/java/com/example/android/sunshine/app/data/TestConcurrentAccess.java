@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+    Has the provider write big merges over and over while several threads query it, the way the
+    forecast list, the widgets and Muzei do during a sync, and checks that the readers never get
+    stuck behind the writer.
+ */
+public class TestConcurrentAccess extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestConcurrentAccess.class.getSimpleName();
+
+    private static final int READER_COUNT = 3;
+    private static final int WRITE_BATCHES = 10;
+    private static final int ROWS_PER_BATCH = 2000;
+
+    // Well above what reading a couple thousand rows takes, and well below what waiting out a
+    // batch of writes takes.
+    private static final long MAX_READ_MILLIS = 250;
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        mLocationRowId = ContentUris.parseId(locationUri);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        TestUtilities.closeProviderDatabase(mContext);
+        super.tearDown();
+    }
+
+    public void testReadersDoNotWaitForWriter() throws Throwable {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            // Before Jelly Bean the provider's readers and writer share one connection.
+            Log.i(LOG_TAG, "Skipping, no write-ahead logging on this platform");
+            return;
+        }
+
+        // Give the readers something to read from the start.
+        mContext.getContentResolver().bulkInsert(WeatherEntry.buildWeatherMergeUri(),
+                createWeatherValues(0));
+
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch readersDone = new CountDownLatch(READER_COUNT);
+        final long[][] readMillis = new long[READER_COUNT][];
+
+        for (int i = 0; i < READER_COUNT; i++) {
+            final int reader = i;
+            new Thread("Reader " + i) {
+                @Override
+                public void run() {
+                    long[] latencies = new long[1024];
+                    int reads = 0;
+                    try {
+                        Uri uri = WeatherEntry.buildWeatherLocationWithStartDate(
+                                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+                        while (writing.get()) {
+                            long start = System.nanoTime();
+                            Cursor cursor = mContext.getContentResolver().query(uri, null, null,
+                                    null, WeatherEntry.COLUMN_DATE + " ASC");
+                            // Pull the rows, which is where the query actually runs.
+                            cursor.getCount();
+                            cursor.close();
+                            if (reads == latencies.length) {
+                                latencies = Arrays.copyOf(latencies, reads * 2);
+                            }
+                            latencies[reads++] = (System.nanoTime() - start) / 1000000;
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    } finally {
+                        readMillis[reader] = Arrays.copyOf(latencies, reads);
+                        readersDone.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        long writeStart = System.nanoTime();
+        try {
+            for (int batch = 1; batch <= WRITE_BATCHES; batch++) {
+                mContext.getContentResolver().bulkInsert(WeatherEntry.buildWeatherMergeUri(),
+                        createWeatherValues(batch));
+            }
+        } finally {
+            writing.set(false);
+        }
+        long writeMillis = (System.nanoTime() - writeStart) / 1000000;
+        readersDone.await();
+
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+
+        long[] all = new long[0];
+        for (long[] latencies : readMillis) {
+            int offset = all.length;
+            all = Arrays.copyOf(all, offset + latencies.length);
+            System.arraycopy(latencies, 0, all, offset, latencies.length);
+        }
+        assertTrue("Error: The readers never got to read", all.length > 0);
+        Arrays.sort(all);
+
+        long median = all[all.length / 2];
+        long worst = all[all.length - 1];
+        Log.i(LOG_TAG, WRITE_BATCHES + " batches of " + ROWS_PER_BATCH + " rows in " +
+                writeMillis + "ms, " + all.length + " reads alongside: median " + median +
+                "ms, worst " + worst + "ms");
+
+        assertTrue("Error: A read took " + worst + "ms while the sync was writing",
+                worst <= MAX_READ_MILLIS);
+    }
+
+    /*
+        Each batch changes every row, so each one rewrites the whole forecast.
+     */
+    private ContentValues[] createWeatherValues(int batch) {
+        ContentValues[] values = new ContentValues[ROWS_PER_BATCH];
+        for (int i = 0; i < ROWS_PER_BATCH; i++) {
+            ContentValues weatherValues = TestUtilities.createWeatherValues(mLocationRowId);
+            weatherValues.put(WeatherEntry.COLUMN_DATE,
+                    TestUtilities.TEST_DATE + i * DAY_IN_MILLIS);
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, 75 + batch);
+            values[i] = weatherValues;
+        }
+        return values;
+    }
+}
@@ -28,6 +28,7 @@ public class TestDb extends AndroidTestCase {
 
     // Since we want each test to start with a clean slate
     void deleteTheDatabase() {
+        TestUtilities.closeProviderDatabase(mContext);
         mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
     }
 
@@ -234,4 +235,30 @@ public class TestDb extends AndroidTestCase {
         db.close();
         return locationRowId;
     }
+
+    /*
+        Upgrading from version 2 should add the location/date index and keep the data.
+     */
+    public void testUpgradeFromVersion2() throws Throwable {
+        long locationRowId = insertLocation();
+
+        // Turn the database back into a version 2 one.
+        SQLiteDatabase db = new WeatherDbHelper(this.mContext).getWritableDatabase();
+        db.execSQL("DROP INDEX " + WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE);
+        db.setVersion(2);
+        db.close();
+
+        db = new WeatherDbHelper(this.mContext).getWritableDatabase();
+        Cursor c = db.rawQuery("SELECT name FROM sqlite_master WHERE type='index' AND name = ?",
+                new String[]{WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE});
+        assertTrue("Error: The upgrade did not add the location/date index", c.moveToFirst());
+        c.close();
+
+        c = db.query(WeatherContract.LocationEntry.TABLE_NAME, null,
+                WeatherContract.LocationEntry._ID + " = ?",
+                new String[]{Long.toString(locationRowId)}, null, null, null);
+        assertTrue("Error: The upgrade lost the location data", c.moveToFirst());
+        c.close();
+        db.close();
+    }
 }
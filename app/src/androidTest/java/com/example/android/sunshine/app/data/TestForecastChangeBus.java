@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+
+/*
+    Checks that the signals from one commit reach a subscriber as one change, and that changes
+    close together reach it as one delivery.
+ */
+public class TestForecastChangeBus extends AndroidTestCase {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static class RecordingSubscriber implements ForecastChangeBus.Subscriber {
+        final List<ForecastChangeBus.Change> changes = new ArrayList<ForecastChangeBus.Change>();
+
+        @Override
+        public synchronized void onForecastChanged(ForecastChangeBus.Change change) {
+            changes.add(change);
+        }
+
+        synchronized List<ForecastChangeBus.Change> getChanges() {
+            return new ArrayList<ForecastChangeBus.Change>(changes);
+        }
+    }
+
+    private ForecastChangeBus mBus;
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mLocationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        mBus = ForecastChangeBus.getInstance(mContext);
+        // Let the notification for the delete go by before anyone subscribes.
+        Thread.sleep(2 * ForecastChangeBus.COALESCE_WINDOW_MILLIS);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        TestUtilities.closeProviderDatabase(mContext);
+        super.tearDown();
+    }
+
+    public void testCommitIsOneChange() throws InterruptedException {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        mBus.subscribe(subscriber, DIRECT, 0);
+        try {
+            mContext.getContentResolver().insert(WeatherEntry.buildWeatherMergeUri(),
+                    TestUtilities.createWeatherValues(mLocationRowId));
+            mBus.post(Collections.singleton(TestUtilities.TEST_LOCATION));
+            Thread.sleep(3 * ForecastChangeBus.COALESCE_WINDOW_MILLIS);
+        } finally {
+            mBus.unsubscribe(subscriber);
+        }
+
+        List<ForecastChangeBus.Change> changes = subscriber.getChanges();
+        assertEquals("The commit's signals weren't coalesced", 1, changes.size());
+        ForecastChangeBus.Change change = changes.get(0);
+        assertEquals(Collections.singleton(TestUtilities.TEST_LOCATION),
+                change.getLocationSettings());
+        assertTrue(change.affectsLocation(TestUtilities.TEST_LOCATION));
+        assertFalse(change.affectsLocation("94043"));
+        assertTrue(Arrays.equals(
+                new long[]{WeatherContract.normalizeDate(TestUtilities.TEST_DATE)},
+                change.getDates()));
+    }
+
+    public void testDebounceMergesChanges() throws InterruptedException {
+        long debounce = 3 * ForecastChangeBus.COALESCE_WINDOW_MILLIS;
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        mBus.subscribe(subscriber, DIRECT, debounce);
+        try {
+            mBus.post(Collections.singleton("94043"));
+            // Past the first window, but well inside the debounce.
+            Thread.sleep(ForecastChangeBus.COALESCE_WINDOW_MILLIS * 3 / 2);
+            mBus.post(Collections.singleton(TestUtilities.TEST_LOCATION));
+            Thread.sleep(ForecastChangeBus.COALESCE_WINDOW_MILLIS + debounce * 2);
+        } finally {
+            mBus.unsubscribe(subscriber);
+        }
+
+        List<ForecastChangeBus.Change> changes = subscriber.getChanges();
+        assertEquals("Back to back changes weren't debounced", 1, changes.size());
+        Set<String> expected = new TreeSet<String>(
+                Arrays.asList("94043", TestUtilities.TEST_LOCATION));
+        assertEquals(expected, changes.get(0).getLocationSettings());
+        // Nothing was written, so nothing says which dates.
+        assertNull(changes.get(0).getDates());
+    }
+
+    public void testMergeChange() {
+        ForecastChangeBus.Change a = new ForecastChangeBus.Change(
+                new TreeSet<String>(Collections.singleton("a")), new long[]{1, 3, 5});
+        ForecastChangeBus.Change b = new ForecastChangeBus.Change(
+                new TreeSet<String>(Collections.singleton("b")), new long[]{2, 3, 6});
+        ForecastChangeBus.Change merged = a.merge(b);
+        assertEquals(new TreeSet<String>(Arrays.asList("a", "b")), merged.getLocationSettings());
+        assertTrue(Arrays.equals(new long[]{1, 2, 3, 5, 6}, merged.getDates()));
+
+        // Not knowing wins: a change that could be anywhere merges into one that could be too.
+        ForecastChangeBus.Change anywhere = new ForecastChangeBus.Change(null, null);
+        assertNull(a.merge(anywhere).getLocationSettings());
+        assertNull(anywhere.merge(a).getDates());
+        assertTrue(a.merge(anywhere).affectsLocation("c"));
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+
+/*
+    Checks that a ForecastSeries survives the trips it makes: through a Bundle into the provider,
+    into the database, and back out of a cursor.
+ */
+public class TestForecastSeries extends AndroidTestCase {
+
+    private static final int DAYS = 14;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        mLocationRowId = ContentUris.parseId(locationUri);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        TestUtilities.closeProviderDatabase(mContext);
+        super.tearDown();
+    }
+
+    public void testBundleRoundTrip() {
+        ForecastSeries forecast = createForecast(0);
+        assertEquals(forecast, ForecastSeries.fromBundle(forecast.toBundle()));
+        assertNull(ForecastSeries.fromBundle(new Bundle()));
+    }
+
+    public void testIndexOfDate() {
+        ForecastSeries forecast = createForecast(0);
+        for (int i = 0; i < DAYS; i++) {
+            assertEquals(i, forecast.indexOfDate(forecast.getDate(i)));
+        }
+        assertEquals(-1, forecast.indexOfDate(TestUtilities.TEST_DATE - DAY_IN_MILLIS));
+        assertEquals(-1, ForecastSeries.empty().indexOfDate(TestUtilities.TEST_DATE));
+    }
+
+    public void testConcat() {
+        ForecastSeries forecast = createForecast(0);
+        ForecastSeries.Builder first = new ForecastSeries.Builder(5);
+        ForecastSeries.Builder second = new ForecastSeries.Builder(DAYS - 5);
+        for (int i = 0; i < DAYS; i++) {
+            (i < 5 ? first : second).addDay(forecast.getDate(i), forecast.getWeatherId(i),
+                    forecast.getDescription(i), forecast.getMaxTemp(i), forecast.getMinTemp(i),
+                    forecast.getHumidity(i), forecast.getPressure(i), forecast.getWindSpeed(i),
+                    forecast.getDegrees(i));
+        }
+        ForecastSeries[] parts = {first.build(), second.build(), null};
+        assertEquals(forecast, ForecastSeries.concat(parts, 2));
+        assertSame(parts[0], ForecastSeries.concat(parts, 1));
+        assertEquals(0, ForecastSeries.concat(parts, 0).size());
+    }
+
+    public void testPagedQuery() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            // The provider only takes a series through call().
+            return;
+        }
+        ForecastSeries forecast = createForecast(0);
+        merge(forecast);
+
+        // Walk the forecast five days at a time, each page starting after the last one.
+        Uri locationUri = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, forecast.getDate(1));
+        long afterDate = 0;
+        int day = 1;
+        while (true) {
+            ForecastSeries page = query(
+                    WeatherEntry.buildWeatherLocationPage(locationUri, afterDate, 5));
+            for (int i = 0; i < page.size(); i++, day++) {
+                assertEquals(forecast.getDate(day), page.getDate(i));
+            }
+            if (page.size() < 5) {
+                break;
+            }
+            afterDate = page.getDate(page.size() - 1);
+        }
+        assertEquals(DAYS, day);
+    }
+
+    public void testMergeAndReadBack() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            // The provider only takes a series through call().
+            return;
+        }
+        ForecastSeries forecast = createForecast(0);
+        assertEquals(DAYS, merge(forecast));
+
+        ForecastSeries stored = queryForecast();
+        assertEquals(DAYS, stored.size());
+        assertEquals(TestUtilities.TEST_LOCATION, stored.getLocationSetting());
+        assertTrue(stored.hasCoordinates());
+        for (int i = 0; i < DAYS; i++) {
+            assertEquals(forecast.getDate(i), stored.getDate(i));
+            assertTrue("Error: Day " + i + " came back different",
+                    forecast.hasSameWeather(i, stored, i));
+            assertTrue(stored.getId(i) > 0);
+        }
+
+        // The same forecast again changes nothing.
+        assertEquals(0, merge(forecast));
+
+        // A changed forecast updates the days in place.
+        ForecastSeries changed = createForecast(1);
+        assertEquals(DAYS, merge(changed));
+        ForecastSeries updated = queryForecast();
+        for (int i = 0; i < DAYS; i++) {
+            assertEquals("Error: Day " + i + " lost its row", stored.getId(i), updated.getId(i));
+            assertTrue(changed.hasSameWeather(i, updated, i));
+        }
+    }
+
+    public void testMergeSeveralLocations() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            // The provider only takes a series through call().
+            return;
+        }
+        // One location that's stored, and one that isn't yet.
+        ArrayList<Bundle> forecasts = new ArrayList<Bundle>();
+        ForecastSeries northPole = createForecast(0);
+        Bundle northPoleExtras = northPole.toBundle();
+        northPoleExtras.putLong(WeatherContract.EXTRA_LOCATION_ID, mLocationRowId);
+        forecasts.add(northPoleExtras);
+        ForecastSeries mountainView = createForecast(1);
+        Bundle mountainViewExtras = mountainView.toBundle();
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, "94043");
+        locationValues.put(LocationEntry.COLUMN_CITY_NAME, "Mountain View");
+        locationValues.put(LocationEntry.COLUMN_COORD_LAT, 37.386);
+        locationValues.put(LocationEntry.COLUMN_COORD_LONG, -122.084);
+        mountainViewExtras.putParcelable(WeatherContract.EXTRA_LOCATION_VALUES, locationValues);
+        forecasts.add(mountainViewExtras);
+
+        Bundle extras = new Bundle();
+        extras.putParcelableArrayList(WeatherContract.EXTRA_FORECASTS, forecasts);
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_MERGE_FORECASTS, null, extras);
+        assertNotNull(result);
+        assertEquals(2 * DAYS, result.getInt(WeatherContract.EXTRA_CHANGED_COUNT));
+
+        ForecastSeries stored = queryForecast();
+        ForecastSeries storedNew = query(WeatherEntry.buildWeatherLocation("94043"));
+        assertEquals(DAYS, stored.size());
+        assertEquals(DAYS, storedNew.size());
+        for (int i = 0; i < DAYS; i++) {
+            assertTrue(northPole.hasSameWeather(i, stored, i));
+            assertTrue(mountainView.hasSameWeather(i, storedNew, i));
+        }
+    }
+
+    public void testChangedWeatherColumns() {
+        ForecastSeries forecast = createForecast(0);
+        assertEquals(0, forecast.getChangedWeatherColumns(3, forecast, 3));
+
+        // Only the high differs, day for day.
+        ForecastSeries warmer = createForecast(1);
+        int columns = warmer.getChangedWeatherColumns(3, forecast, 3);
+        assertEquals(1, Integer.bitCount(columns));
+        assertEquals(WeatherEntry.COLUMN_MAX_TEMP,
+                ForecastSeries.WEATHER_DATA_COLUMNS[Integer.numberOfTrailingZeros(columns)]);
+
+        // Every column differs between different days.
+        assertEquals(ForecastSeries.ALL_WEATHER_DATA_COLUMNS & ~(1 << 1),
+                forecast.getChangedWeatherColumns(3, forecast, 4));
+    }
+
+    private int merge(ForecastSeries forecast) {
+        Bundle extras = forecast.toBundle();
+        extras.putLong(WeatherContract.EXTRA_LOCATION_ID, mLocationRowId);
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_MERGE_FORECAST, null, extras);
+        assertNotNull(result);
+        return result.getInt(WeatherContract.EXTRA_CHANGED_COUNT);
+    }
+
+    private ForecastSeries queryForecast() {
+        return query(WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION));
+    }
+
+    private ForecastSeries query(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri,
+                ForecastSeries.COLUMNS, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            return ForecastSeries.fromCursor(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ForecastSeries createForecast(int offset) {
+        ForecastSeries.Builder builder = new ForecastSeries.Builder(4);
+        for (int i = 0; i < DAYS; i++) {
+            builder.addDay(WeatherContract.normalizeDate(
+                            TestUtilities.TEST_DATE + i * DAY_IN_MILLIS),
+                    800 + i, "Clear", 20.5 + i + offset, 10.25 + i, 40 + i, 1013.2 - i,
+                    1.5 + i, 10 * i);
+        }
+        return builder.build();
+    }
+}
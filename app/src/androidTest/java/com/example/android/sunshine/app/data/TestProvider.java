@@ -16,19 +16,29 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
@@ -99,6 +109,12 @@ public class TestProvider extends AndroidTestCase {
         deleteAllRecords();
     }
 
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.closeProviderDatabase(mContext);
+        super.tearDown();
+    }
+
     /*
         This test checks to make sure that the content provider is registered correctly.
         Students: Uncomment this test to make sure you've correctly registered the WeatherProvider.
@@ -512,4 +528,173 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    public void testBulkMerge() {
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(locationRowId);
+        int mergeCount = mContext.getContentResolver().bulkInsert(
+                WeatherEntry.buildWeatherMergeUri(), weatherValues);
+        assertEquals("Every day is new, so every day should be inserted",
+                BULK_INSERT_RECORDS_TO_INSERT, mergeCount);
+        long[] rowIds = queryWeatherRowIds();
+
+        // The same forecast again changes nothing.
+        weatherValues = createBulkInsertWeatherValues(locationRowId);
+        mergeCount = mContext.getContentResolver().bulkInsert(
+                WeatherEntry.buildWeatherMergeUri(), weatherValues);
+        assertEquals("An unchanged forecast should not write anything", 0, mergeCount);
+
+        // Change one day, and prune the first two.
+        weatherValues = createBulkInsertWeatherValues(locationRowId);
+        weatherValues[5].put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        long pruneBeforeDate = weatherValues[2].getAsLong(WeatherEntry.COLUMN_DATE);
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        mergeCount = mContext.getContentResolver().bulkInsert(
+                WeatherEntry.buildWeatherMergeUri(pruneBeforeDate), weatherValues);
+
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals("One day should be updated and two pruned", 3, mergeCount);
+
+        // The days that survived keep their row ids, including the one that was updated.
+        long[] mergedRowIds = queryWeatherRowIds();
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT - 2, mergedRowIds.length);
+        for (int i = 0; i < mergedRowIds.length; i++) {
+            assertEquals("Merging should not replace stored rows", rowIds[i + 2], mergedRowIds[i]);
+        }
+
+        // The provider stores the date normalized, so leave it out of the comparison.
+        ContentValues expectedValues = new ContentValues(weatherValues[5]);
+        expectedValues.remove(WeatherEntry.COLUMN_DATE);
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                WeatherEntry._ID + " = ?",
+                new String[]{Long.toString(mergedRowIds[3])},
+                null);
+        TestUtilities.validateCursor("testBulkMerge.  Error validating the updated day",
+                cursor, expectedValues);
+    }
+
+    /*
+        A sync of every location applies one batch: weather for a stored location, a new location,
+        and weather for it that finds the new location's id through a back reference.  It should
+        land in one transaction, with one change notification.
+     */
+    public void testApplyBatch() throws Exception {
+        long northPoleId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues mountainView = new ContentValues();
+        mountainView.put(LocationEntry.COLUMN_LOCATION_SETTING, "94043");
+        mountainView.put(LocationEntry.COLUMN_CITY_NAME, "Mountain View");
+        mountainView.put(LocationEntry.COLUMN_COORD_LAT, 37.386);
+        mountainView.put(LocationEntry.COLUMN_COORD_LONG, -122.084);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (ContentValues values : createBulkInsertWeatherValues(northPoleId)) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.buildWeatherMergeUri())
+                    .withValues(values).build());
+        }
+        int locationOperation = operations.size();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(mountainView).build());
+        for (ContentValues values : createBulkInsertWeatherValues(0)) {
+            values.remove(WeatherEntry.COLUMN_LOC_KEY);
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.buildWeatherMergeUri())
+                    .withValues(values)
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, locationOperation)
+                    .build());
+        }
+
+        final HandlerThread observerThread = new HandlerThread("ContentObserverThread");
+        observerThread.start();
+        final AtomicInteger notifications = new AtomicInteger();
+        ContentObserver observer = new ContentObserver(new Handler(observerThread.getLooper())) {
+            @Override
+            public void onChange(boolean selfChange) {
+                notifications.incrementAndGet();
+            }
+        };
+        mContext.getContentResolver().registerContentObserver(
+                WeatherContract.BASE_CONTENT_URI, true, observer);
+        ContentProviderResult[] results;
+        try {
+            // A batch that fails at the end leaves nothing behind.
+            ArrayList<ContentProviderOperation> failing =
+                    new ArrayList<ContentProviderOperation>(operations);
+            failing.add(ContentProviderOperation.newDelete(LocationEntry.CONTENT_URI)
+                    .withSelection(LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                            new String[]{"nowhere"})
+                    .withExpectedCount(1)
+                    .build());
+            try {
+                mContext.getContentResolver().applyBatch(
+                        WeatherContract.CONTENT_AUTHORITY, failing);
+                fail("The last operation should have failed the batch");
+            } catch (OperationApplicationException expected) {
+            }
+            assertEquals("A failed batch should be rolled back", 0, countRows(
+                    WeatherEntry.CONTENT_URI));
+            assertEquals("A failed batch should be rolled back", 1, countRows(
+                    LocationEntry.CONTENT_URI));
+
+            results = mContext.getContentResolver().applyBatch(
+                    WeatherContract.CONTENT_AUTHORITY, operations);
+            assertEquals(operations.size(), results.length);
+
+            new PollingCheck(5000) {
+                @Override
+                protected boolean check() {
+                    return notifications.get() > 0;
+                }
+            }.run();
+            // Give any stragglers time to arrive.
+            Thread.sleep(1000);
+            assertEquals("The batch should notify once", 1, notifications.get());
+        } finally {
+            mContext.getContentResolver().unregisterContentObserver(observer);
+            observerThread.quit();
+        }
+
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT,
+                countRows(WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION)));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT,
+                countRows(WeatherEntry.buildWeatherLocation("94043")));
+
+        // The weather for the new location references it.
+        long mountainViewId = ContentUris.parseId(results[locationOperation].uri);
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID}, WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{Long.toString(mountainViewId)}, null);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+    }
+
+    private int countRows(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private long[] queryWeatherRowIds() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID},
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        long[] rowIds = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            rowIds[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        return rowIds;
+    }
 }
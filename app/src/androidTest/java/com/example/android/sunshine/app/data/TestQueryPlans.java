@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Runs EXPLAIN QUERY PLAN over the statements behind each provider URI, and the keyed lookups
+    the sync adapter makes, and fails if SQLite would scan a whole table for any of them.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestQueryPlans.class.getSimpleName();
+
+    // The order ForecastFragment and the widgets ask for.
+    private static final String SORT_BY_DATE = WeatherEntry.COLUMN_DATE + " ASC";
+
+    private static final String[] LOCATION_AND_DATE_ARGS =
+            new String[]{TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE)};
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.closeProviderDatabase(mContext);
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    // "weather/*"
+    public void testWeatherWithLocation() {
+        assertNoTableScan(buildJoinQuery(WeatherProvider.sLocationSettingSelection),
+                new String[]{TestUtilities.TEST_LOCATION});
+    }
+
+    // "weather/*?date=", which is what ForecastFragment loads.
+    public void testWeatherWithLocationAndStartDate() {
+        assertNoTableScan(buildJoinQuery(WeatherProvider.sLocationSettingWithStartDateSelection),
+                LOCATION_AND_DATE_ARGS);
+    }
+
+    // "weather/*/#"
+    public void testWeatherWithLocationAndDate() {
+        assertNoTableScan(buildJoinQuery(WeatherProvider.sLocationSettingAndDaySelection),
+                LOCATION_AND_DATE_ARGS);
+    }
+
+    // "weather" is only ever queried, updated or deleted from by key.
+    public void testWeatherById() {
+        assertNoTableScan(SQLiteQueryBuilder.buildQueryString(false, WeatherEntry.TABLE_NAME,
+                null, WeatherMerger.sIdSelection, null, null, null, null),
+                new String[]{"1"});
+    }
+
+    public void testMergeLookup() {
+        assertNoTableScan(SQLiteQueryBuilder.buildQueryString(false, WeatherEntry.TABLE_NAME,
+                null, WeatherMerger.sLocationAndDateRangeSelection, null, null, null, null),
+                new String[]{"1", Long.toString(TestUtilities.TEST_DATE),
+                        Long.toString(TestUtilities.TEST_DATE)});
+    }
+
+    public void testPruneOldDays() {
+        assertNoTableScan("DELETE FROM " + WeatherEntry.TABLE_NAME + " WHERE " +
+                WeatherMerger.sBeforeDateSelection,
+                new String[]{Long.toString(TestUtilities.TEST_DATE)});
+    }
+
+    // "location", as the sync adapter looks locations up.
+    public void testLocationBySetting() {
+        assertNoTableScan(SQLiteQueryBuilder.buildQueryString(false, LocationEntry.TABLE_NAME,
+                null, LocationEntry.COLUMN_LOCATION_SETTING + " = ?", null, null, null, null),
+                new String[]{TestUtilities.TEST_LOCATION});
+    }
+
+    private static String buildJoinQuery(String selection) {
+        return SQLiteQueryBuilder.buildQueryString(false,
+                WeatherProvider.sWeatherByLocationSettingQueryBuilder.getTables(),
+                null, selection, null, null, SORT_BY_DATE, null);
+    }
+
+    private void assertNoTableScan(String sql, String[] selectionArgs) {
+        Cursor plan = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        try {
+            int detailIndex = plan.getColumnIndex("detail");
+            assertTrue("Error: The query plan has no detail column", detailIndex != -1);
+            assertTrue("Error: No query plan for " + sql, plan.moveToFirst());
+            do {
+                String detail = plan.getString(detailIndex);
+                Log.d(LOG_TAG, sql + ": " + detail);
+                // Newer SQLite versions leave out the word TABLE.  A scan of a covering index is
+                // no better than a scan of the table.
+                assertFalse("Error: Full table scan (" + detail + ") in " + sql,
+                        detail.startsWith("SCAN "));
+            } while (plan.moveToNext());
+        } finally {
+            plan.close();
+        }
+    }
+}
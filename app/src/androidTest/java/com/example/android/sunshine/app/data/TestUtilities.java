@@ -15,12 +15,14 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.content.ContentProviderClient;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.ContentObserver;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.test.AndroidTestCase;
@@ -163,4 +165,24 @@ public class TestUtilities extends AndroidTestCase {
     static TestContentObserver getTestContentObserver() {
         return TestContentObserver.getTestContentObserver();
     }
+
+    /*
+        Closes the provider's database, so a test that deletes the database file doesn't leave
+        the provider reading one that's gone.  The provider opens it again the next time it's
+        used.  Tests that go through the provider call this when they're done, and tests that
+        delete the file call it before they do.
+     */
+    static void closeProviderDatabase(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            // ContentProvider.shutdown() is Honeycomb and up.
+            return;
+        }
+        ContentProviderClient client = context.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        try {
+            client.getLocalContentProvider().shutdown();
+        } finally {
+            client.release();
+        }
+    }
 }
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.ForecastSeries;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+/*
+    Checks that the streaming forecast parser agrees with the tree parser, and compares what the
+    two cost.  The benchmark numbers only go to the log; the assertions are kept loose enough that
+    they hold on any device.
+ */
+public class TestForecastJsonParser extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastJsonParser.class.getSimpleName();
+
+    private static final int BENCHMARK_WARMUP_RUNS = 20;
+    private static final int BENCHMARK_RUNS = 200;
+
+    /*
+        Builds a response shaped like OWM's daily forecast, with the city first like the real
+        service sends it.
+     */
+    static String createForecastJson(int numDays, boolean cityFirst) {
+        String city = "\"city\":{\"id\":5375480,\"name\":\"Mountain View\"," +
+                "\"coord\":{\"lon\":-122.083847,\"lat\":37.386051},\"country\":\"US\"," +
+                "\"population\":0}";
+        StringBuilder json = new StringBuilder();
+        json.append('{');
+        if (cityFirst) {
+            json.append(city).append(',');
+        }
+        json.append("\"cod\":\"200\",\"message\":0.0123,\"cnt\":").append(numDays)
+                .append(",\"list\":[");
+        for (int i = 0; i < numDays; i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"dt\":").append(1419019200L + i * 86400L)
+                    .append(",\"temp\":{\"day\":12.5,\"min\":").append(5.25 + i)
+                    .append(",\"max\":").append(15.75 + i)
+                    .append(",\"night\":6.1,\"eve\":11.2,\"morn\":5.5}")
+                    .append(",\"pressure\":").append(1013.2 - i)
+                    .append(",\"humidity\":").append(40 + i)
+                    .append(",\"weather\":[{\"id\":").append(800 + (i % 5))
+                    .append(",\"main\":\"Clear\",\"description\":\"sky is clear\",\"icon\":\"01d\"}]")
+                    .append(",\"speed\":").append(1.5 + i / 10.0)
+                    .append(",\"deg\":").append(10 * i)
+                    .append(",\"clouds\":0}");
+        }
+        json.append(']');
+        if (!cityFirst) {
+            json.append(',').append(city);
+        }
+        json.append('}');
+        return json.toString();
+    }
+
+    static class CollectingCallback implements ForecastJsonParser.Callback {
+        String cityName;
+        double lat;
+        double lon;
+        // Each day is dated by its index, which is all the parser knows about it.
+        final ForecastSeries.Builder days = new ForecastSeries.Builder(16);
+
+        @Override
+        public void onCity(String cityName, double lat, double lon) {
+            this.cityName = cityName;
+            this.lat = lat;
+            this.lon = lon;
+        }
+
+        @Override
+        public void onDay(int dayIndex, int weatherId, String description, double maxTemp,
+                double minTemp, double humidity, double pressure, double windSpeed,
+                double degrees) {
+            assertEquals("Days should be reported in order", days.size(), dayIndex);
+            days.addDay(dayIndex, weatherId, description, maxTemp, minTemp, humidity, pressure,
+                    windSpeed, degrees);
+        }
+    }
+
+    public void testStreamMatchesTree() throws Throwable {
+        for (boolean cityFirst : new boolean[] {true, false}) {
+            String json = createForecastJson(14, cityFirst);
+
+            CollectingCallback tree = new CollectingCallback();
+            assertEquals(HttpURLConnection.HTTP_OK, ForecastJsonParser.parse(json, tree));
+
+            CollectingCallback stream = new CollectingCallback();
+            assertEquals(HttpURLConnection.HTTP_OK,
+                    ForecastJsonParser.parse(toStream(json), stream));
+
+            assertEquals("Mountain View", stream.cityName);
+            assertEquals(tree.cityName, stream.cityName);
+            assertEquals(tree.lat, stream.lat);
+            assertEquals(tree.lon, stream.lon);
+            assertEquals(14, stream.days.size());
+            assertEquals(tree.days.build(), stream.days.build());
+        }
+    }
+
+    public void testStreamReportsErrorCode() throws Throwable {
+        String json = "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}";
+        CollectingCallback stream = new CollectingCallback();
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND,
+                ForecastJsonParser.parse(toStream(json), stream));
+        assertEquals(0, stream.days.size());
+
+        CollectingCallback tree = new CollectingCallback();
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, ForecastJsonParser.parse(json, tree));
+    }
+
+    public void testStreamRejectsTruncatedResponse() throws Throwable {
+        String json = createForecastJson(14, true);
+        try {
+            ForecastJsonParser.parse(toStream(json.substring(0, json.length() / 2)),
+                    new CollectingCallback());
+            fail("A truncated response should not parse");
+        } catch (IOException | JSONException e) {
+            // expected
+        }
+    }
+
+    public void testBenchmark14Days() throws Throwable {
+        benchmark(14);
+    }
+
+    public void testBenchmark16Days() throws Throwable {
+        benchmark(16);
+    }
+
+    /*
+        Both sides start from the raw bytes of the response, so the tree path pays for building
+        the String as it does in the sync adapter.
+     */
+    @SuppressWarnings("deprecation")
+    private void benchmark(int numDays) throws Throwable {
+        byte[] payload = createForecastJson(numDays, true).getBytes("UTF-8");
+
+        for (int i = 0; i < BENCHMARK_WARMUP_RUNS; i++) {
+            runTree(payload);
+            runStream(payload);
+        }
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocSize();
+            long treeStart = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_RUNS; i++) {
+                runTree(payload);
+            }
+            long treeNanos = System.nanoTime() - treeStart;
+            long treeBytes = Debug.getThreadAllocSize();
+
+            Debug.resetThreadAllocSize();
+            long streamStart = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_RUNS; i++) {
+                runStream(payload);
+            }
+            long streamNanos = System.nanoTime() - streamStart;
+            long streamBytes = Debug.getThreadAllocSize();
+
+            Log.i(LOG_TAG, numDays + " days, " + payload.length + " bytes: tree " +
+                    (treeNanos / BENCHMARK_RUNS / 1000) + "us " +
+                    (treeBytes / BENCHMARK_RUNS) + "B allocated, stream " +
+                    (streamNanos / BENCHMARK_RUNS / 1000) + "us " +
+                    (streamBytes / BENCHMARK_RUNS) + "B allocated per parse");
+
+            // Allocation counting isn't available on every runtime; only compare when it is.
+            if (treeBytes > 0 && streamBytes > 0) {
+                assertTrue("The streaming parser should allocate less than the tree parser",
+                        streamBytes < treeBytes);
+            }
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    private static void runTree(byte[] payload) throws Throwable {
+        CollectingCallback callback = new CollectingCallback();
+        String json = ForecastJsonParser.readFully(new ByteArrayInputStream(payload));
+        ForecastJsonParser.parse(json, callback);
+    }
+
+    private static void runStream(byte[] payload) throws Throwable {
+        CollectingCallback callback = new CollectingCallback();
+        ForecastJsonParser.parse(new ByteArrayInputStream(payload), callback);
+    }
+
+    private static InputStream toStream(String json) throws Throwable {
+        return new ByteArrayInputStream(json.getBytes("UTF-8"));
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.google.android.gms.wearable.DataMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/*
+    Checks that a WatchForecast survives encoding, that the changes between two apply back onto
+    the first, and that bad payloads are turned away.  Also compares its size with the DataMap
+    the watch used to get; the sizes only go to the log.
+ */
+public class TestWatchForecast extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWatchForecast.class.getSimpleName();
+
+    private static final int DAYS = 14;
+    private static final int FIRST_JULIAN_DAY = 2457377;  // December 20th, 2015
+    private static final String[] DESCRIPTIONS = {"Clear", "Clouds", "Rain", "Snow"};
+
+    static WatchForecast createForecast(int days, boolean metric) {
+        WatchForecast.Builder builder = new WatchForecast.Builder(metric);
+        for (int i = 0; i < days; i++) {
+            builder.addDay(FIRST_JULIAN_DAY + i, 800 + i % 4,
+                    20.5 - i * 3.14, -12.25 + i, DESCRIPTIONS[i % DESCRIPTIONS.length]);
+        }
+        return builder.build();
+    }
+
+    public void testRoundTrip() {
+        WatchForecast forecast = createForecast(DAYS, false);
+        WatchForecast decoded = WatchForecast.fromByteArray(forecast.toByteArray());
+        assertEquals(forecast, decoded);
+        assertFalse(decoded.isMetric());
+        assertEquals(DAYS, decoded.size());
+        for (int i = 0; i < DAYS; i++) {
+            assertEquals(FIRST_JULIAN_DAY + i, decoded.getJulianDay(i));
+            assertEquals(800 + i % 4, decoded.getWeatherId(i));
+            // Tenths of a degree survive; anything finer is rounded away.
+            assertEquals(Math.round((20.5 - i * 3.14) * 10) / 10.0, decoded.getHigh(i), 1e-9);
+            assertEquals(Math.round((-12.25 + i) * 10) / 10.0, decoded.getLow(i), 1e-9);
+            assertEquals(DESCRIPTIONS[i % DESCRIPTIONS.length], decoded.getDescription(i));
+        }
+
+        WatchForecast empty = createForecast(0, true);
+        assertEquals(empty, WatchForecast.fromByteArray(empty.toByteArray()));
+    }
+
+    public void testGapsAndUnicode() {
+        WatchForecast forecast = new WatchForecast.Builder(true)
+                .addDay(FIRST_JULIAN_DAY, 200, -40, -55.5, "Gewitter mit Regenschauern")
+                .addDay(FIRST_JULIAN_DAY + 3, 611, 0, -0.04, "雨夹雪")
+                .addDay(FIRST_JULIAN_DAY + 3, 781, 56.7, 30, null)
+                .build();
+        WatchForecast decoded = WatchForecast.fromByteArray(forecast.toByteArray());
+        assertEquals(forecast, decoded);
+        assertEquals(FIRST_JULIAN_DAY + 3, decoded.getJulianDay(1));
+        assertEquals("雨夹雪", decoded.getDescription(1));
+        assertEquals("", decoded.getDescription(2));
+        assertEquals(1, decoded.indexOfJulianDay(FIRST_JULIAN_DAY + 1));
+        assertEquals(-1, decoded.indexOfJulianDay(FIRST_JULIAN_DAY + 4));
+    }
+
+    public void testFormatsInItsUnits() {
+        WatchForecast.Builder builder = new WatchForecast.Builder(false)
+                .addDay(FIRST_JULIAN_DAY, 800, 100, 0, "Clear");
+        WatchForecast imperial = WatchForecast.fromByteArray(builder.build().toByteArray());
+        assertEquals(String.format("%1.0f°", 212.0), imperial.formatTemperature(100));
+        assertEquals(String.format("%1.0f°", 32.0), imperial.formatTemperature(0));
+    }
+
+    public void testChangesApplyToTheirBase() {
+        WatchForecast base = createForecast(DAYS, true);
+        // A day later: the first day has gone, one has new weather, and there's a new last day.
+        WatchForecast.Builder builder = new WatchForecast.Builder(true);
+        for (int i = 1; i <= DAYS; i++) {
+            int weatherId = i == 5 ? 500 : 800 + i % 4;
+            builder.addDay(FIRST_JULIAN_DAY + i, weatherId,
+                    20.5 - i * 3.14, -12.25 + i, DESCRIPTIONS[i % DESCRIPTIONS.length]);
+        }
+        WatchForecast updated = builder.build();
+
+        WatchForecast changes = updated.changesFrom(base);
+        assertEquals(2, changes.size());
+        assertEquals(FIRST_JULIAN_DAY + 5, changes.getJulianDay(0));
+        assertEquals(FIRST_JULIAN_DAY + DAYS, changes.getJulianDay(1));
+        WatchForecast decoded = WatchForecast.fromByteArray(changes.toByteArray());
+        assertEquals(updated, WatchForecast.applyChanges(base, decoded,
+                FIRST_JULIAN_DAY + 1, FIRST_JULIAN_DAY + DAYS));
+
+        // Nothing changed but the units.
+        WatchForecast imperial = createForecast(DAYS, false);
+        changes = imperial.changesFrom(base);
+        assertEquals(0, changes.size());
+        assertEquals(imperial, WatchForecast.applyChanges(base, changes,
+                FIRST_JULIAN_DAY, FIRST_JULIAN_DAY + DAYS - 1));
+    }
+
+    public void testRejectsBadPayloads() {
+        byte[] payload = createForecast(DAYS, true).toByteArray();
+
+        byte[] unknownVersion = payload.clone();
+        unknownVersion[0] = WatchForecast.VERSION + 1;
+        assertRejected(unknownVersion);
+
+        for (int length = 0; length < payload.length; length++) {
+            assertRejected(Arrays.copyOf(payload, length));
+        }
+    }
+
+    private static void assertRejected(byte[] payload) {
+        try {
+            WatchForecast.fromByteArray(payload);
+            fail("Read a forecast from a bad payload of " + payload.length + " bytes");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    /*
+        Compares two weeks as a WatchForecast with the DataMap that held just today, and with
+        two weeks of days laid out the same way.
+     */
+    public void testSizeAgainstDataMap() {
+        WatchForecast forecast = createForecast(DAYS, true);
+        int binarySize = forecast.toByteArray().length;
+
+        ArrayList<DataMap> days = new ArrayList<DataMap>(DAYS);
+        for (int i = 0; i < DAYS; i++) {
+            DataMap day = new DataMap();
+            day.putString("watch_high", forecast.formatTemperature(forecast.getHigh(i)));
+            day.putString("watch_desc", forecast.getDescription(i));
+            day.putInt("watch_weather_id", forecast.getWeatherId(i));
+            day.putLong("watch_time", System.currentTimeMillis());
+            day.putString("watch_low", forecast.formatTemperature(forecast.getLow(i)));
+            days.add(day);
+        }
+        int oneDaySize = days.get(0).toByteArray().length;
+        DataMap twoWeeks = new DataMap();
+        twoWeeks.putDataMapArrayList("days", days);
+        int twoWeeksSize = twoWeeks.toByteArray().length;
+
+        Log.i(LOG_TAG, "Two weeks as a WatchForecast: " + binarySize + " bytes; today as a " +
+                "DataMap: " + oneDaySize + " bytes; two weeks as DataMaps: " + twoWeeksSize +
+                " bytes");
+        assertTrue("Two weeks take more than two days as DataMaps",
+                binarySize < 2 * oneDaySize);
+        assertTrue(binarySize < twoWeeksSize);
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+
+import com.facebook.stetho.Stetho;
+
+/**
+ * Tools for debug builds only.  Release builds get a version of this class that does nothing,
+ * and don't link Stetho at all.
+ */
+final class DebugTools {
+
+    private DebugTools() {
+    }
+
+    static void initialize(Context context) {
+        Stetho.initialize(
+                Stetho.newInitializerBuilder(context)
+                        .enableDumpapp(
+                                Stetho.defaultDumperPluginsProvider(context))
+                        .enableWebKitInspector(
+                                Stetho.defaultInspectorModulesProvider(context))
+                        .build());
+    }
+}
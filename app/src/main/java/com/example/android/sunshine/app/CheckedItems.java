@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import java.util.Arrays;
+
+/**
+ * The checked items of an {@link ItemChoiceManager}: each one's position and the ID it had there,
+ * in two primitive arrays sorted by position.
+ *
+ * Looking a position up is a binary search, and when items are inserted or removed the checked
+ * ones after them are shifted in one pass, without asking the adapter anything.  The whole set
+ * saves as a single long[].
+ */
+final class CheckedItems {
+
+    private int[] mPositions = new int[4];
+    private long[] mIds = new long[4];
+    private int mSize;
+
+    int size() {
+        return mSize;
+    }
+
+    int positionAt(int index) {
+        return mPositions[index];
+    }
+
+    boolean isChecked(int position) {
+        return Arrays.binarySearch(mPositions, 0, mSize, position) >= 0;
+    }
+
+    void check(int position, long id) {
+        int index = Arrays.binarySearch(mPositions, 0, mSize, position);
+        if (index >= 0) {
+            mIds[index] = id;
+            return;
+        }
+        index = ~index;
+        if (mSize == mPositions.length) {
+            mPositions = Arrays.copyOf(mPositions, mSize * 2);
+            mIds = Arrays.copyOf(mIds, mSize * 2);
+        }
+        System.arraycopy(mPositions, index, mPositions, index + 1, mSize - index);
+        System.arraycopy(mIds, index, mIds, index + 1, mSize - index);
+        mPositions[index] = position;
+        mIds[index] = id;
+        mSize++;
+    }
+
+    void uncheck(int position) {
+        int index = Arrays.binarySearch(mPositions, 0, mSize, position);
+        if (index >= 0) {
+            removeRange(index, index + 1);
+        }
+    }
+
+    void clear() {
+        mSize = 0;
+    }
+
+    /**
+     * Follows {@code count} items being inserted at {@code start}.
+     */
+    void onInserted(int start, int count) {
+        for (int i = firstIndexAtOrAfter(start); i < mSize; i++) {
+            mPositions[i] += count;
+        }
+    }
+
+    /**
+     * Follows {@code count} items being removed from {@code start}.  The checked ones among them
+     * are dropped.
+     */
+    void onRemoved(int start, int count) {
+        int from = firstIndexAtOrAfter(start);
+        int to = firstIndexAtOrAfter(start + count);
+        removeRange(from, to);
+        for (int i = from; i < mSize; i++) {
+            mPositions[i] -= count;
+        }
+    }
+
+    /**
+     * Follows the item at {@code from} being moved to {@code to}.
+     */
+    void onMoved(int from, int to) {
+        int index = Arrays.binarySearch(mPositions, 0, mSize, from);
+        long id = index >= 0 ? mIds[index] : 0;
+        onRemoved(from, 1);
+        onInserted(to, 1);
+        if (index >= 0) {
+            check(to, id);
+        }
+    }
+
+    /**
+     * @return id, position pairs for every checked item, see {@link #fromLongArray(long[])}.
+     */
+    long[] toLongArray() {
+        long[] state = new long[2 * mSize];
+        for (int i = 0; i < mSize; i++) {
+            state[2 * i] = mIds[i];
+            state[2 * i + 1] = mPositions[i];
+        }
+        return state;
+    }
+
+    void fromLongArray(long[] state) {
+        clear();
+        for (int i = 0; i + 1 < state.length; i += 2) {
+            check((int) state[i + 1], state[i]);
+        }
+    }
+
+    private int firstIndexAtOrAfter(int position) {
+        int index = Arrays.binarySearch(mPositions, 0, mSize, position);
+        return index >= 0 ? index : ~index;
+    }
+
+    private void removeRange(int from, int to) {
+        System.arraycopy(mPositions, to, mPositions, from, mSize - to);
+        System.arraycopy(mIds, to, mIds, from, mSize - to);
+        mSize -= to - from;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.ForecastSeries;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * What the forecast list shows: the loaded {@link ForecastSeries}, plus a {@link Row} per day
+ * with every string and resource its list item needs, worked out ahead of time.
+ *
+ * {@link ForecastLoader} builds one on a background thread for every load, so that binding a
+ * list item is nothing but handing fields to its views.  Formatting a temperature reads the units
+ * preference, formats a resource string, and working out a day's name allocates a Time and a
+ * SimpleDateFormat; none of that belongs in onBindViewHolder while the list is being flung.
+ */
+final class ForecastList {
+
+    private static final AtomicInteger sGenerations = new AtomicInteger();
+
+    // Tells lists apart without holding on to them, see ForecastListDiff.
+    final int generation = sGenerations.incrementAndGet();
+    final ForecastSeries forecast;
+    final Row[] rows;
+    // How to get here from the list loaded before this one, or null if there wasn't one.
+    final ForecastListDiff diff;
+    // The day the rows were worked out on.  "Today" and "Tomorrow" mean something else after
+    // midnight.
+    private final int mJulianDay;
+    // What else went into the rows' strings, see canReuseRows.
+    private final boolean mIsMetric;
+    private final boolean mUsingLocalGraphics;
+    private final Locale mLocale;
+
+    /**
+     * One list item, ready to bind.
+     */
+    static final class Row {
+        final long id;
+        final long date;
+        final int weatherId;
+
+        final String dayLabel;
+        // The label for the "today" layout, which spells out today's date.
+        final String longDayLabel;
+
+        final String description;
+        final String descriptionA11y;
+        final String high;
+        final String highA11y;
+        final String low;
+        final String lowA11y;
+
+        final int iconResource;
+        final int artResource;
+        // Null when the local graphics are in use.
+        final String artUrl;
+        final String transitionName;
+
+        private Row(Context context, ForecastSeries forecast, int day, boolean isMetric,
+                boolean usingLocalGraphics) {
+            id = forecast.getId(day);
+            date = forecast.getDate(day);
+            weatherId = forecast.getWeatherId(day);
+
+            dayLabel = Utility.getFriendlyDayString(context, date, false);
+            // Only today reads differently in the long form, and only the first row can be today.
+            longDayLabel = day == 0 ? Utility.getFriendlyDayString(context, date, true) : dayLabel;
+
+            description = Utility.getStringForWeatherCondition(context, weatherId);
+            descriptionA11y = context.getString(R.string.a11y_forecast, description);
+            high = Utility.formatTemperature(context, forecast.getMaxTemp(day), isMetric);
+            highA11y = context.getString(R.string.a11y_high_temp, high);
+            low = Utility.formatTemperature(context, forecast.getMinTemp(day), isMetric);
+            lowA11y = context.getString(R.string.a11y_low_temp, low);
+
+            iconResource = Utility.getIconResourceForWeatherCondition(weatherId);
+            artResource = Utility.getArtResourceForWeatherCondition(weatherId);
+            artUrl = usingLocalGraphics
+                    ? null : Utility.getArtUrlForWeatherCondition(context, weatherId);
+            // this enables better animations. even if we lose state due to a device rotation,
+            // the animator can use this to re-find the original view.  Rows keep their views as
+            // days come and go around them, so the name goes by date, not position.
+            transitionName = "iconView" + date;
+        }
+
+        /**
+         * @return whether the two rows would show exactly the same thing.
+         */
+        boolean hasSameContents(Row other) {
+            if (this == other) {
+                return true;
+            }
+            return id == other.id &&
+                    date == other.date &&
+                    weatherId == other.weatherId &&
+                    dayLabel.equals(other.dayLabel) &&
+                    longDayLabel.equals(other.longDayLabel) &&
+                    description.equals(other.description) &&
+                    high.equals(other.high) &&
+                    low.equals(other.low) &&
+                    (artUrl == null ? other.artUrl == null : artUrl.equals(other.artUrl));
+        }
+    }
+
+    private ForecastList(ForecastSeries forecast, Row[] rows, int julianDay, boolean isMetric,
+            boolean usingLocalGraphics, Locale locale, ForecastList previous) {
+        this.forecast = forecast;
+        this.rows = rows;
+        mJulianDay = julianDay;
+        mIsMetric = isMetric;
+        mUsingLocalGraphics = usingLocalGraphics;
+        mLocale = locale;
+        diff = previous == null ? null : ForecastListDiff.compute(previous, this);
+    }
+
+    /**
+     * Works out the rows for {@code forecast}, and what changed since {@code previous}.  Days
+     * that {@code previous} already had a row for, with the same weather, keep that row.  Reads
+     * preferences and resources, so keep it off the main thread.
+     */
+    static ForecastList build(Context context, ForecastSeries forecast, ForecastList previous) {
+        boolean isMetric = Utility.isMetric(context);
+        boolean usingLocalGraphics = Utility.usingLocalGraphics(context);
+        Locale locale = context.getResources().getConfiguration().locale;
+        int julianDay = getJulianDay();
+        boolean reuseRows = previous != null &&
+                previous.canReuseRows(julianDay, isMetric, usingLocalGraphics, locale);
+
+        Row[] rows = new Row[forecast.size()];
+        for (int i = 0; i < rows.length; i++) {
+            // The first row is the only one with a long day label, so it's never swapped with
+            // another.
+            if (reuseRows && i > 0) {
+                ForecastSeries previousForecast = previous.forecast;
+                int previousDay = previousForecast.indexOfDate(forecast.getDate(i));
+                if (previousDay > 0 &&
+                        previousForecast.getId(previousDay) == forecast.getId(i) &&
+                        previousForecast.hasSameWeather(previousDay, forecast, i)) {
+                    rows[i] = previous.rows[previousDay];
+                    continue;
+                }
+            }
+            rows[i] = new Row(context, forecast, i, isMetric, usingLocalGraphics);
+        }
+        return new ForecastList(forecast, rows, julianDay, isMetric, usingLocalGraphics, locale,
+                previous);
+    }
+
+    int size() {
+        return rows.length;
+    }
+
+    /**
+     * @return whether the day labels still hold, that is the rows were worked out today.
+     */
+    boolean isCurrent() {
+        return mJulianDay == getJulianDay();
+    }
+
+    private boolean canReuseRows(int julianDay, boolean isMetric, boolean usingLocalGraphics,
+            Locale locale) {
+        return mJulianDay == julianDay &&
+                mIsMetric == isMetric &&
+                mUsingLocalGraphics == usingLocalGraphics &&
+                mLocale.equals(locale);
+    }
+
+    private static int getJulianDay() {
+        Time time = new Time();
+        time.setToNow();
+        return Time.getJulianDay(System.currentTimeMillis(), time.gmtoff);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.support.v7.widget.RecyclerView;
+
+import java.util.Arrays;
+
+/**
+ * The item-level changes that turn one {@link ForecastList} into the next, as the adapter
+ * notifications that describe them.
+ *
+ * Both lists are sorted by date, and a location has one row per date, so the two can be walked
+ * side by side in one pass: a date only in the old list was removed, one only in the new list
+ * was inserted, and one in both changed if anything shown for it did.  That's all a forecast
+ * ever does between loads; old days drop off the top, new ones appear at the bottom, and a sync
+ * revises some of the days in between.
+ */
+final class ForecastListDiff {
+
+    private static final int REMOVE = 0;
+    private static final int INSERT = 1;
+    private static final int CHANGE = 2;
+
+    // The generation of the list this diff starts from; it only applies on top of that one.
+    final int fromGeneration;
+
+    // Operations in dispatch order, three ints each: type, position, item count.  Positions
+    // account for the operations before them, the way the adapter notifications expect.
+    private int[] mOps = new int[3 * 4];
+    private int mOpCount;
+
+    private ForecastListDiff(int fromGeneration) {
+        this.fromGeneration = fromGeneration;
+    }
+
+    static ForecastListDiff compute(ForecastList from, ForecastList to) {
+        ForecastListDiff diff = new ForecastListDiff(from.generation);
+        ForecastList.Row[] oldRows = from.rows;
+        ForecastList.Row[] newRows = to.rows;
+        int oldIndex = 0;
+        int newIndex = 0;
+        // Where the next operation lands, in the list as it stands after the previous ones.
+        int position = 0;
+        while (oldIndex < oldRows.length || newIndex < newRows.length) {
+            if (newIndex == newRows.length ||
+                    (oldIndex < oldRows.length &&
+                            oldRows[oldIndex].date < newRows[newIndex].date)) {
+                diff.add(REMOVE, position);
+                oldIndex++;
+            } else if (oldIndex == oldRows.length ||
+                    oldRows[oldIndex].date > newRows[newIndex].date) {
+                diff.add(INSERT, position);
+                position++;
+                newIndex++;
+            } else {
+                if (!oldRows[oldIndex].hasSameContents(newRows[newIndex])) {
+                    diff.add(CHANGE, position);
+                }
+                position++;
+                oldIndex++;
+                newIndex++;
+            }
+        }
+
+        // The first row has a layout of its own, so whichever day ends up there has to be bound
+        // again even if nothing about it changed.
+        if (newRows.length > 0 &&
+                (oldRows.length == 0 || oldRows[0].date != newRows[0].date)) {
+            diff.add(CHANGE, 0);
+        }
+        return diff;
+    }
+
+    void dispatchTo(RecyclerView.Adapter adapter) {
+        for (int i = 0; i < mOpCount; i++) {
+            int type = mOps[3 * i];
+            int position = mOps[3 * i + 1];
+            int count = mOps[3 * i + 2];
+            switch (type) {
+                case REMOVE:
+                    adapter.notifyItemRangeRemoved(position, count);
+                    break;
+                case INSERT:
+                    adapter.notifyItemRangeInserted(position, count);
+                    break;
+                default:
+                    adapter.notifyItemRangeChanged(position, count);
+            }
+        }
+    }
+
+    /**
+     * Adds an operation on one item, folding it into the previous operation when that's of the
+     * same type and the two ranges run together.
+     */
+    private void add(int type, int position) {
+        if (mOpCount > 0) {
+            int last = 3 * (mOpCount - 1);
+            if (mOps[last] == type) {
+                int lastPosition = mOps[last + 1];
+                int lastCount = mOps[last + 2];
+                // Removals all happen at the same position; the rows after slide up into it.
+                if (type == REMOVE ? position == lastPosition
+                        : position == lastPosition + lastCount) {
+                    mOps[last + 2] = lastCount + 1;
+                    return;
+                }
+            }
+        }
+        if (3 * (mOpCount + 1) > mOps.length) {
+            mOps = Arrays.copyOf(mOps, mOps.length * 2);
+        }
+        int next = 3 * mOpCount;
+        mOps[next] = type;
+        mOps[next + 1] = position;
+        mOps[next + 2] = 1;
+        mOpCount++;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.v4.content.AsyncTaskLoader;
+import android.support.v4.util.LruCache;
+
+import com.example.android.sunshine.app.data.ForecastSeries;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * Loads the forecast for the list and turns it into a {@link ForecastList} on the loader's
+ * thread, so the main thread only ever sees rows that are ready to bind.
+ *
+ * Works like a CursorLoader, except the cursor is closed as soon as it's been read: the loader
+ * watches the URI itself, and loads again whenever the provider says it changed.  Each load is
+ * diffed against the one before it, on the same thread, so the adapter can update just the rows
+ * that changed.
+ *
+ * The days are read a page at a time, each page picking up after the last date of the one
+ * before, so no query has to skip over rows or fill a CursorWindow with the whole forecast.  The
+ * loader starts with one page and reads another each time the list asks for {@link #loadMore};
+ * pages it has already read are kept, up to a limit, until the provider reports a change.
+ */
+class ForecastLoader extends AsyncTaskLoader<ForecastList> {
+
+    static final int PAGE_SIZE = 30;
+    // Enough for a year of days before loading more has to read early pages again.
+    private static final int MAX_CACHED_PAGES = 12;
+
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+    private final Uri mUri;
+
+    // Pages by the date they start after, only touched on the loader's thread.
+    private final LruCache<Long, ForecastSeries> mPages =
+            new LruCache<Long, ForecastSeries>(MAX_CACHED_PAGES);
+    // Set when the provider reports a change, so the next load reads every page again.
+    private volatile boolean mPagesStale;
+    // How many pages the list wants, only ever raised on the main thread.
+    private volatile int mPageCount = 1;
+
+    // Written on the main thread, and read on the loader's to diff the next load against.
+    private volatile ForecastList mList;
+    private boolean mObserving;
+
+    ForecastLoader(Context context, Uri uri) {
+        super(context);
+        mUri = uri;
+    }
+
+    /**
+     * Reads another page after the ones loaded so far, unless those don't fill up the pages
+     * asked for yet; either they're still loading, or they're all there is.  Call it as the list
+     * nears its end.
+     */
+    void loadMore() {
+        ForecastList list = mList;
+        if (list == null || list.size() < mPageCount * PAGE_SIZE) {
+            return;
+        }
+        mPageCount++;
+        if (isStarted()) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    public void onContentChanged() {
+        mPagesStale = true;
+        super.onContentChanged();
+    }
+
+    @Override
+    public ForecastList loadInBackground() {
+        if (mPagesStale) {
+            mPagesStale = false;
+            mPages.evictAll();
+        }
+        int pageCount = mPageCount;
+        ForecastSeries[] pages = new ForecastSeries[pageCount];
+        int loaded = 0;
+        long afterDate = 0;
+        while (loaded < pageCount) {
+            ForecastSeries page = mPages.get(afterDate);
+            if (page == null) {
+                page = queryPage(afterDate);
+                mPages.put(afterDate, page);
+            }
+            pages[loaded++] = page;
+            if (page.size() < PAGE_SIZE) {
+                // That was the last of them.
+                break;
+            }
+            afterDate = page.getDate(page.size() - 1);
+        }
+        return ForecastList.build(getContext(), ForecastSeries.concat(pages, loaded), mList);
+    }
+
+    private ForecastSeries queryPage(long afterDate) {
+        Uri pageUri = WeatherContract.WeatherEntry.buildWeatherLocationPage(mUri, afterDate,
+                PAGE_SIZE);
+        Cursor cursor = getContext().getContentResolver().query(pageUri, ForecastSeries.COLUMNS,
+                null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            return ForecastSeries.fromCursor(cursor);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    @Override
+    public void deliverResult(ForecastList list) {
+        if (isReset()) {
+            return;
+        }
+        mList = list;
+        if (isStarted()) {
+            super.deliverResult(list);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserving) {
+            // Watch before the first query, so no change can slip in between.
+            getContext().getContentResolver().registerContentObserver(mUri, true, mObserver);
+            mObserving = true;
+        }
+        if (mList != null) {
+            deliverResult(mList);
+        }
+        if (takeContentChanged() || mList == null || !mList.isCurrent()) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        if (mObserving) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserving = false;
+        }
+        mList = null;
+    }
+}
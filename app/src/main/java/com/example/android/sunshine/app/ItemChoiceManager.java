@@ -17,19 +17,16 @@ package com.example.android.sunshine.app;
 
 import android.os.Build;
 import android.os.Bundle;
-import android.os.Parcel;
-import android.os.Parcelable;
-import android.support.v4.util.LongSparseArray;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.RecyclerView;
 import android.util.Log;
-import android.util.SparseBooleanArray;
 import android.widget.AbsListView;
 import android.widget.Checkable;
 
 /**
- * The ItemChoiceManager class keeps track of which positions have been selected.  Note that it
- * doesn't take advantage of new adapter features to track changes in the underlying data.
+ * The ItemChoiceManager class keeps track of which positions have been selected.  Inserted, removed
+ * and moved items shift the selection along with them.  After a whole data set change, an adapter
+ * with stable IDs has the selection found again by ID.
  */
 public class ItemChoiceManager {
     private final String LOG_TAG = MainActivity.class.getSimpleName();
@@ -44,6 +41,22 @@ public class ItemChoiceManager {
             if (mAdapter != null && mAdapter.hasStableIds())
                 confirmCheckedPositionsById(mAdapter.getItemCount());
         }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            mChecked.onInserted(positionStart, itemCount);
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            mChecked.onRemoved(positionStart, itemCount);
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            // RecyclerView only ever moves one item at a time.
+            mChecked.onMoved(fromPosition, toPosition);
+        }
     };
 
     private ItemChoiceManager() {
@@ -53,6 +66,7 @@ public class ItemChoiceManager {
 
     public ItemChoiceManager(RecyclerView.Adapter adapter) {
         mAdapter = adapter;
+        mAdapter.registerAdapterDataObserver(mAdapterDataObserver);
     }
 
     /**
@@ -63,22 +77,14 @@ public class ItemChoiceManager {
     private static final int CHECK_POSITION_SEARCH_DISTANCE = 20;
 
     /**
-     * Running state of which positions are currently checked
+     * Running state of which positions are currently checked, and the ID each one had
      */
-    SparseBooleanArray mCheckStates = new SparseBooleanArray();
-
-    /**
-     * Running state of which IDs are currently checked.
-     * If there is a value for a given key, the checked state for that ID is true
-     * and the value holds the last known position in the adapter for that id.
-     */
-    LongSparseArray<Integer> mCheckedIdStates = new LongSparseArray<Integer>();
+    final CheckedItems mChecked = new CheckedItems();
 
     public void onClick(RecyclerView.ViewHolder vh) {
         if (mChoiceMode == AbsListView.CHOICE_MODE_NONE)
             return;
 
-        int checkedItemCount = mCheckStates.size();
         int position = vh.getAdapterPosition();
 
         if (position == RecyclerView.NO_POSITION) {
@@ -90,15 +96,13 @@ public class ItemChoiceManager {
             case AbsListView.CHOICE_MODE_NONE:
                 break;
             case AbsListView.CHOICE_MODE_SINGLE: {
-                boolean checked = mCheckStates.get(position, false);
+                boolean checked = mChecked.isChecked(position);
                 if (!checked) {
-                    for (int i = 0; i < checkedItemCount; i++) {
-                        mAdapter.notifyItemChanged(mCheckStates.keyAt(i));
+                    for (int i = 0; i < mChecked.size(); i++) {
+                        mAdapter.notifyItemChanged(mChecked.positionAt(i));
                     }
-                    mCheckStates.clear();
-                    mCheckStates.put(position, true);
-                    mCheckedIdStates.clear();
-                    mCheckedIdStates.put(mAdapter.getItemId(position), position);
+                    mChecked.clear();
+                    mChecked.check(position, mAdapter.getItemId(position));
                 }
                 // We directly call onBindViewHolder here because notifying that an item has
                 // changed on an item that has the focus causes it to lose focus, which makes
@@ -107,8 +111,12 @@ public class ItemChoiceManager {
                 break;
             }
             case AbsListView.CHOICE_MODE_MULTIPLE: {
-                boolean checked = mCheckStates.get(position, false);
-                mCheckStates.put(position, !checked);
+                boolean checked = mChecked.isChecked(position);
+                if (checked) {
+                    mChecked.uncheck(position);
+                } else {
+                    mChecked.check(position, mAdapter.getItemId(position));
+                }
                 // We directly call onBindViewHolder here because notifying that an item has
                 // changed on an item that has the focus causes it to lose focus, which makes
                 // keyboard navigation a bit annoying
@@ -146,44 +154,36 @@ public class ItemChoiceManager {
      * @see #setChoiceMode(int)
      */
     public boolean isItemChecked(int position) {
-        return mCheckStates.get(position);
+        return mChecked.isChecked(position);
     }
 
     void clearSelections() {
-        mCheckStates.clear();
-        mCheckedIdStates.clear();
+        mChecked.clear();
     }
 
-    void confirmCheckedPositionsById(int oldItemCount) {
-        // Clear out the positional check states, we'll rebuild it below from IDs.
-        mCheckStates.clear();
-
-        for (int checkedIndex = 0; checkedIndex < mCheckedIdStates.size(); checkedIndex++) {
-            final long id = mCheckedIdStates.keyAt(checkedIndex);
-            final int lastPos = mCheckedIdStates.valueAt(checkedIndex);
-
-            final long lastPosId = mAdapter.getItemId(lastPos);
-            if (id != lastPosId) {
-                // Look around to see if the ID is nearby. If not, uncheck it.
-                final int start = Math.max(0, lastPos - CHECK_POSITION_SEARCH_DISTANCE);
-                final int end = Math.min(lastPos + CHECK_POSITION_SEARCH_DISTANCE, oldItemCount);
-                boolean found = false;
-                for (int searchPos = start; searchPos < end; searchPos++) {
-                    final long searchId = mAdapter.getItemId(searchPos);
-                    if (id == searchId) {
-                        found = true;
-                        mCheckStates.put(searchPos, true);
-                        mCheckedIdStates.setValueAt(checkedIndex, searchPos);
-                        break;
-                    }
-                }
+    void confirmCheckedPositionsById(int itemCount) {
+        // Nothing says where the items went, so check each one is still where it was, and look
+        // around for the ones that aren't.  Found items can't pass each other by more than the
+        // search distance, so collect them first and put them back in order after.
+        final long[] state = mChecked.toLongArray();
+        mChecked.clear();
 
-                if (!found) {
-                    mCheckedIdStates.delete(id);
-                    checkedIndex--;
+        for (int i = 0; i < state.length; i += 2) {
+            final long id = state[i];
+            final int lastPos = (int) state[i + 1];
+
+            if (lastPos < itemCount && id == mAdapter.getItemId(lastPos)) {
+                mChecked.check(lastPos, id);
+                continue;
+            }
+            // Look around to see if the ID is nearby. If not, uncheck it.
+            final int start = Math.max(0, lastPos - CHECK_POSITION_SEARCH_DISTANCE);
+            final int end = Math.min(lastPos + CHECK_POSITION_SEARCH_DISTANCE, itemCount);
+            for (int searchPos = start; searchPos < end; searchPos++) {
+                if (id == mAdapter.getItemId(searchPos)) {
+                    mChecked.check(searchPos, id);
+                    break;
                 }
-            } else {
-                mCheckStates.put(lastPos, true);
             }
         }
     }
@@ -197,41 +197,21 @@ public class ItemChoiceManager {
     }
 
     public void onRestoreInstanceState(Bundle savedInstanceState) {
-        byte[] states = savedInstanceState.getByteArray(SELECTED_ITEMS_KEY);
+        long[] states = savedInstanceState.getLongArray(SELECTED_ITEMS_KEY);
         if ( null != states ) {
-            Parcel inParcel = Parcel.obtain();
-            inParcel.unmarshall(states, 0, states.length);
-            inParcel.setDataPosition(0);
-            mCheckStates = inParcel.readSparseBooleanArray();
-            final int numStates = inParcel.readInt();
-            mCheckedIdStates.clear();
-            for (int i=0; i<numStates; i++) {
-                final long key = inParcel.readLong();
-                final int value = inParcel.readInt();
-                mCheckedIdStates.put(key, value);
-            }
+            mChecked.fromLongArray(states);
         }
     }
 
     public void onSaveInstanceState(Bundle outState) {
-        Parcel outParcel = Parcel.obtain();
-        outParcel.writeSparseBooleanArray(mCheckStates);
-        final int numStates = mCheckedIdStates.size();
-        outParcel.writeInt(numStates);
-        for (int i=0; i<numStates; i++) {
-            outParcel.writeLong(mCheckedIdStates.keyAt(i));
-            outParcel.writeInt(mCheckedIdStates.valueAt(i));
-        }
-        byte[] states = outParcel.marshall();
-        outState.putByteArray(SELECTED_ITEMS_KEY, states);
-        outParcel.recycle();
+        outState.putLongArray(SELECTED_ITEMS_KEY, mChecked.toLongArray());
     }
 
     public int getSelectedItemPosition() {
-        if ( mCheckStates.size() == 0 ) {
+        if ( mChecked.size() == 0 ) {
             return RecyclerView.NO_POSITION;
         } else {
-            return mCheckStates.keyAt(0);
+            return mChecked.positionAt(0);
         }
     }
 }
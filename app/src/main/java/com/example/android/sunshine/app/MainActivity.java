@@ -15,6 +15,7 @@
  */
 package com.example.android.sunshine.app;
 
+import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.net.Uri;
@@ -33,7 +34,6 @@ import android.view.View;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.gcm.RegistrationIntentService;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
-import com.facebook.stetho.Stetho;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
 
@@ -46,10 +46,14 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
 
     private boolean mTwoPane;
     private String mLocation;
+    private StartupScheduler mStartupScheduler;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        if (savedInstanceState == null) {
+            StartupTrace.beginLaunch();
+        }
         mLocation = Utility.getPreferredLocation(this);
         Uri contentUri = getIntent() != null ? getIntent().getData() : null;
 
@@ -90,8 +94,38 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
                     WeatherContract.WeatherEntry.getDateFromUri(contentUri));
         }
 
-        SunshineSyncAdapter.initializeSyncAdapter(this);
+        // None of what's left is needed for the first frame, so it waits until that's drawn.
+        mStartupScheduler = new StartupScheduler();
+        final Context appContext = getApplicationContext();
+        mStartupScheduler.runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                // Goes to the AccountManager, which may read from disk.
+                SunshineSyncAdapter.initializeSyncAdapter(appContext);
+            }
+        });
+        mStartupScheduler.runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                DebugTools.initialize(appContext);
+            }
+        });
+        mStartupScheduler.runWhenIdle(new Runnable() {
+            @Override
+            public void run() {
+                registerWithGcm();
+            }
+        });
+        mStartupScheduler.startAfterFirstDraw(getWindow().getDecorView());
+    }
+
+    @Override
+    protected void onDestroy() {
+        mStartupScheduler.cancel();
+        super.onDestroy();
+    }
 
+    private void registerWithGcm() {
         // If Google Play Services is up to date, we'll want to register GCM. If it is not, we'll
         // skip the registration and this device will not receive any downstream messages from
         // our fake server. Because weather alerts are not a core feature of the app, this should
@@ -108,13 +142,6 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
                 startService(intent);
             }
         }
-        Stetho.initialize(
-                Stetho.newInitializerBuilder(this)
-                        .enableDumpapp(
-                                Stetho.defaultDumperPluginsProvider(this))
-                        .enableWebKitInspector(
-                                Stetho.defaultInspectorModulesProvider(this))
-                        .build());
     }
 
     @Override
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.Process;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import java.util.ArrayDeque;
+
+/**
+ * Holds back the work an activity has to do at startup, but that nothing on screen waits for,
+ * until its first frame has been drawn.  Then the background tasks run in order on a thread of
+ * their own, and the main thread tasks one at a time whenever the main thread runs out of
+ * messages, so none of them gets in the way of the frames after the first either.
+ */
+final class StartupScheduler {
+
+    private final ArrayDeque<Runnable> mIdleTasks = new ArrayDeque<Runnable>();
+    private final ArrayDeque<Runnable> mBackgroundTasks = new ArrayDeque<Runnable>();
+    private boolean mCancelled;
+
+    /**
+     * Runs {@code task} on the main thread, once it's idle after the first frame.
+     */
+    void runWhenIdle(Runnable task) {
+        mIdleTasks.add(task);
+    }
+
+    /**
+     * Runs {@code task} on a background thread after the first frame, after the background tasks
+     * added before it.
+     */
+    void runInBackground(Runnable task) {
+        mBackgroundTasks.add(task);
+    }
+
+    /**
+     * Starts the tasks once {@code view}, the activity's decor view, has drawn for the first time.
+     * That's also when {@link StartupTrace} marks the first frame.
+     */
+    void startAfterFirstDraw(final View view) {
+        view.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                view.getViewTreeObserver().removeOnPreDrawListener(this);
+                // Posted now, it runs after the frame that's about to be drawn.
+                view.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        StartupTrace.markFirstFrame();
+                        start();
+                    }
+                });
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Drops the main thread tasks that haven't run yet, for when the activity is going away.
+     * Background tasks already handed to their thread still run.
+     */
+    void cancel() {
+        mCancelled = true;
+        mIdleTasks.clear();
+    }
+
+    private void start() {
+        if (mCancelled) {
+            return;
+        }
+        if (!mBackgroundTasks.isEmpty()) {
+            final Runnable[] tasks = mBackgroundTasks.toArray(new Runnable[mBackgroundTasks.size()]);
+            mBackgroundTasks.clear();
+            new Thread("startup") {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    for (Runnable task : tasks) {
+                        task.run();
+                    }
+                }
+            }.start();
+        }
+        if (!mIdleTasks.isEmpty()) {
+            Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+                @Override
+                public boolean queueIdle() {
+                    Runnable task = mIdleTasks.poll();
+                    if (task != null) {
+                        task.run();
+                    }
+                    // Stay registered while there's more to do.
+                    return !mIdleTasks.isEmpty();
+                }
+            });
+        }
+    }
+}
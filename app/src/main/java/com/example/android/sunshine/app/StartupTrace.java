@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Times each launch of {@link MainActivity}, from onCreate to its first frame and to the first
+ * forecast row on screen, and logs both under the tag "StartupTrace" once the row shows up.
+ * Only touched on the main thread.
+ */
+final class StartupTrace {
+
+    private static final String LOG_TAG = StartupTrace.class.getSimpleName();
+
+    // Uptime at the start of the launch being traced, or 0 when there isn't one.
+    private static long sLaunchStart;
+    private static long sFirstFrame;
+
+    private StartupTrace() {
+    }
+
+    static void beginLaunch() {
+        sLaunchStart = SystemClock.uptimeMillis();
+        sFirstFrame = 0;
+    }
+
+    static void markFirstFrame() {
+        if (sLaunchStart != 0 && sFirstFrame == 0) {
+            sFirstFrame = SystemClock.uptimeMillis();
+        }
+    }
+
+    static void markFirstForecastRow() {
+        if (sLaunchStart == 0) {
+            return;
+        }
+        long firstRow = SystemClock.uptimeMillis();
+        Log.i(LOG_TAG, "Time to first frame: " +
+                (sFirstFrame == 0 ? "-" : (sFirstFrame - sLaunchStart) + "ms") +
+                ", time to first forecast row: " + (firstRow - sLaunchStart) + "ms");
+        sLaunchStart = 0;
+    }
+}
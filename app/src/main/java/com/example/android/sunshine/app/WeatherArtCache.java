@@ -0,0 +1,412 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.preference.PreferenceManager;
+import android.support.v4.util.LongSparseArray;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Weather art, already scaled to the size it's shown at, for the places that need it as a Bitmap
+ * rather than loading it into a view: notifications, and the like.
+ *
+ * Art is kept by what it shows and at what size, so the weather ids that share a picture share an
+ * entry.  The most recently used ones stay in memory, and every one rendered is also written to
+ * the cache directory, so it survives the process.  Reading from disk, decoding and downloading
+ * all happen on the cache's own thread; callers {@link #peek}, which never blocks, or off the main
+ * thread {@link #get}, which waits a bounded time for art that isn't there yet.
+ *
+ * After each sync, {@link #prefetch} renders the art for every condition in the new forecast, at
+ * the sizes the list, the widgets and the notification show it at, and pins it until the next
+ * sync, so none of them ever has to wait for it.
+ */
+public final class WeatherArtCache {
+
+    private static final String LOG_TAG = WeatherArtCache.class.getSimpleName();
+
+    private static final String DIRECTORY = "weather_art";
+    // There are a dozen pictures in each art pack, at a few sizes.
+    private static final int MAX_DISK_FILES = 64;
+
+    private static WeatherArtCache sInstance;
+
+    private final Context mContext;
+    private final File mDirectory;
+    private final LruCache<String, Bitmap> mMemory;
+    private final Handler mHandler;
+    // What the last prefetch rendered, by pinKey.  Never changed once published, only replaced.
+    private volatile LongSparseArray<Bitmap> mPinned = new LongSparseArray<Bitmap>();
+
+    // Pinned art is for the art pack it was rendered in.  Held here, since the preferences only
+    // keep a weak reference to it.
+    private final SharedPreferences.OnSharedPreferenceChangeListener mArtPackListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+                    if (mContext.getString(R.string.pref_art_pack_key).equals(key)) {
+                        mPinned = new LongSparseArray<Bitmap>();
+                    }
+                }
+            };
+
+    public static synchronized WeatherArtCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WeatherArtCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private WeatherArtCache(Context context) {
+        mContext = context;
+        mDirectory = new File(context.getCacheDir(), DIRECTORY);
+        // The art is small once scaled; a 32nd of the heap holds plenty of it.
+        int maxBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 32, Integer.MAX_VALUE);
+        mMemory = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getRowBytes() * value.getHeight();
+            }
+        };
+        HandlerThread thread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+        PreferenceManager.getDefaultSharedPreferences(context)
+                .registerOnSharedPreferenceChangeListener(mArtPackListener);
+    }
+
+    /**
+     * @return the size of a notification's large icon, width first.
+     */
+    @SuppressLint("InlinedApi")
+    public static int[] getLargeIconSize(Resources resources) {
+        // On Honeycomb and higher devices, we can retrieve the size of the large icon
+        // Prior to that, we use a fixed size
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return new int[] {
+                    resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width),
+                    resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
+            };
+        }
+        int size = resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+        return new int[] {size, size};
+    }
+
+    /**
+     * @return the art for {@code weatherId} at the given size if it's in memory, or null.
+     */
+    public Bitmap peek(int weatherId, int width, int height) {
+        Bitmap art = mPinned.get(pinKey(weatherId, width, height));
+        return art != null ? art : mMemory.get(getKey(weatherId, width, height));
+    }
+
+    /**
+     * Like {@link #peek}, but only finds what the last {@link #prefetch} pinned.  It's a lookup
+     * by number, without reading the art pack preference, so it's cheap enough for binding list
+     * items.
+     */
+    public Bitmap peekPinned(int weatherId, int width, int height) {
+        return mPinned.get(pinKey(weatherId, width, height));
+    }
+
+    /**
+     * Loads the art for each of {@code weatherIds} at the size of a list item icon, of the today
+     * item's, and of a notification's large icon, and pins it in place of what the last prefetch
+     * pinned.  Waits on the cache's thread for up to {@code timeoutMillis}; the prefetch carries
+     * on after that, it just isn't waited for.
+     *
+     * @return whether the prefetch finished in time.
+     */
+    public boolean prefetch(final int[] weatherIds, long timeoutMillis) {
+        Resources resources = mContext.getResources();
+        int listIcon = resources.getDimensionPixelSize(R.dimen.list_icon);
+        int todayIcon = resources.getDimensionPixelSize(R.dimen.today_icon);
+        int[] largeIcon = getLargeIconSize(resources);
+        final int[] widths = {listIcon, todayIcon, largeIcon[0]};
+        final int[] heights = {listIcon, todayIcon, largeIcon[1]};
+
+        final CountDownLatch done = new CountDownLatch(1);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                LongSparseArray<Bitmap> pinned = new LongSparseArray<Bitmap>();
+                for (int weatherId : weatherIds) {
+                    for (int i = 0; i < widths.length; i++) {
+                        long pinKey = pinKey(weatherId, widths[i], heights[i]);
+                        if (pinned.get(pinKey) != null) {
+                            continue;
+                        }
+                        Bitmap art = loadNow(weatherId, widths[i], heights[i]);
+                        if (art != null) {
+                            pinned.put(pinKey, art);
+                        }
+                    }
+                }
+                mPinned = pinned;
+                done.countDown();
+            }
+        });
+        try {
+            return done.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Loads the art for {@code weatherId} at the given size into memory, from disk if it was
+     * rendered before, or else by rendering it.  Waits on the cache's thread for up to
+     * {@code timeoutMillis}; the load carries on after that, it just isn't waited for.
+     *
+     * @return the art, or null if it couldn't be loaded in time.
+     */
+    public Bitmap get(final int weatherId, final int width, final int height,
+            long timeoutMillis) {
+        Bitmap art = peek(weatherId, width, height);
+        if (art != null) {
+            return art;
+        }
+        final Bitmap[] loaded = new Bitmap[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                loaded[0] = loadNow(weatherId, width, height);
+                done.countDown();
+            }
+        });
+        try {
+            return done.await(timeoutMillis, TimeUnit.MILLISECONDS) ? loaded[0] : null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Does the work of {@link #get} on the cache's thread.
+     */
+    private Bitmap loadNow(int weatherId, int width, int height) {
+        String key = getKey(weatherId, width, height);
+        Bitmap art = loadCached(key);
+        if (art != null) {
+            return art;
+        }
+        if (!Utility.usingLocalGraphics(mContext)) {
+            art = renderRemote(weatherId, width, height);
+            if (art != null) {
+                writeToDisk(key, art);
+                mMemory.put(key, art);
+                return art;
+            }
+            // Fall back on the local art.  It's kept under its own key, not the remote art's, so
+            // the remote art is tried again the next time it's asked for.
+        }
+        String localKey = getLocalKey(weatherId, width, height);
+        art = loadCached(localKey);
+        if (art == null) {
+            art = renderLocal(weatherId, width, height);
+            if (art != null) {
+                writeToDisk(localKey, art);
+                mMemory.put(localKey, art);
+            }
+        }
+        return art;
+    }
+
+    /**
+     * @return the art kept under {@code key}, from memory or else from disk, or null.
+     */
+    private Bitmap loadCached(String key) {
+        Bitmap art = mMemory.get(key);
+        if (art == null) {
+            art = readFromDisk(key);
+            if (art != null) {
+                mMemory.put(key, art);
+            }
+        }
+        return art;
+    }
+
+    private static long pinKey(int weatherId, int width, int height) {
+        return ((long) weatherId << 32) | ((long) (width & 0xffff) << 16) | (height & 0xffff);
+    }
+
+    /**
+     * Names the picture {@code weatherId} shows in the current art pack, and the size, in a form
+     * that's fine as a file name.  Local art goes by resource name, since ids change between
+     * builds.
+     */
+    private String getKey(int weatherId, int width, int height) {
+        if (Utility.usingLocalGraphics(mContext)) {
+            return getLocalKey(weatherId, width, height);
+        }
+        // Not "url", which older versions could have written local art under.
+        String artUrl = Utility.getArtUrlForWeatherCondition(mContext, weatherId);
+        return "remote" + (artUrl == null ? "none" : Integer.toHexString(artUrl.hashCode())) +
+                "_" + width + "x" + height;
+    }
+
+    private String getLocalKey(int weatherId, int width, int height) {
+        int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+        String art = artResourceId == -1
+                ? "none" : mContext.getResources().getResourceEntryName(artResourceId);
+        return art + "_" + width + "x" + height;
+    }
+
+    /**
+     * @return the art pack's art for {@code weatherId}, or null if it couldn't be fetched.
+     */
+    private Bitmap renderRemote(int weatherId, int width, int height) {
+        String artUrl = Utility.getArtUrlForWeatherCondition(mContext, weatherId);
+        if (artUrl == null) {
+            return null;
+        }
+        try {
+            return Glide.with(mContext)
+                    .load(artUrl)
+                    .asBitmap()
+                    .fitCenter()
+                    .into(width, height).get();
+        } catch (InterruptedException | ExecutionException e) {
+            Log.e(LOG_TAG, "Error retrieving art from " + artUrl, e);
+            return null;
+        }
+    }
+
+    private Bitmap renderLocal(int weatherId, int width, int height) {
+        int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+        if (artResourceId == -1) {
+            return null;
+        }
+        return decodeResource(mContext.getResources(), artResourceId, width, height);
+    }
+
+    /**
+     * Decodes a resource scaled to fit inside {@code width} by {@code height}, keeping its aspect
+     * ratio, without decoding it at full size first if it's much bigger.
+     */
+    private static Bitmap decodeResource(Resources resources, int resourceId, int width,
+            int height) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(resources, resourceId, options);
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= width &&
+                options.outHeight / (sampleSize * 2) >= height) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        Bitmap decoded = BitmapFactory.decodeResource(resources, resourceId, options);
+        if (decoded == null) {
+            return null;
+        }
+        float scale = Math.min((float) width / decoded.getWidth(),
+                (float) height / decoded.getHeight());
+        int scaledWidth = Math.max(1, Math.round(decoded.getWidth() * scale));
+        int scaledHeight = Math.max(1, Math.round(decoded.getHeight() * scale));
+        if (scaledWidth == decoded.getWidth() && scaledHeight == decoded.getHeight()) {
+            return decoded;
+        }
+        Bitmap scaled = Bitmap.createScaledBitmap(decoded, scaledWidth, scaledHeight, true);
+        if (scaled != decoded) {
+            decoded.recycle();
+        }
+        return scaled;
+    }
+
+    private Bitmap readFromDisk(String key) {
+        File file = new File(mDirectory, key + ".png");
+        if (!file.exists()) {
+            return null;
+        }
+        Bitmap art = BitmapFactory.decodeFile(file.getPath());
+        if (art == null) {
+            Log.w(LOG_TAG, "Discarding unreadable art " + file);
+            file.delete();
+        } else {
+            // Touched, so it's the last to go when the directory is trimmed.
+            file.setLastModified(System.currentTimeMillis());
+        }
+        return art;
+    }
+
+    private void writeToDisk(String key, Bitmap art) {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.e(LOG_TAG, "Couldn't create " + mDirectory);
+            return;
+        }
+        File file = new File(mDirectory, key + ".png");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            art.compress(Bitmap.CompressFormat.PNG, 100, out);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing art to " + file, e);
+            file.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing " + file, e);
+                }
+            }
+        }
+        trimDisk();
+    }
+
+    private void trimDisk() {
+        File[] files = mDirectory.listFiles();
+        if (files == null || files.length <= MAX_DISK_FILES) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < files.length - MAX_DISK_FILES; i++) {
+            files[i].delete();
+        }
+    }
+}
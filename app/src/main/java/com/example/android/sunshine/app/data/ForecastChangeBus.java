@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Tells everything that shows the forecast outside the app's own screens, once, that it has
+ * changed.
+ *
+ * A committed forecast sends more than one signal: the provider notifies its observers of the
+ * dates it wrote, and the sync adapter {@link #post posts} the locations it stored.  Every signal
+ * that arrives within {@link #COALESCE_WINDOW_MILLIS} of the first becomes one {@link Change},
+ * carrying the locations and dates of all of them.
+ *
+ * Each {@link Subscriber} gets changes on its own executor, after its own debounce: changes that
+ * arrive while it's waiting, or still busy with the last one, are merged into the next delivery
+ * instead of making one of their own.  So a sync that follows close behind another, like the one
+ * after picking a new location and the periodic one, refreshes each of them once.
+ */
+public final class ForecastChangeBus {
+
+    private static final String LOG_TAG = ForecastChangeBus.class.getSimpleName();
+
+    // Long enough for the provider's notification to catch up with the sync that caused it.
+    static final long COALESCE_WINDOW_MILLIS = 1000;
+
+    /**
+     * The locations and dates one or more commits touched.
+     */
+    public static final class Change {
+
+        // Null when a signal didn't say, in which case it could be any of them.
+        private final Set<String> mLocationSettings;
+        private final long[] mDates;
+
+        Change(Set<String> locationSettings, long[] dates) {
+            mLocationSettings = locationSettings == null
+                    ? null : Collections.unmodifiableSet(locationSettings);
+            mDates = dates;
+        }
+
+        /**
+         * @return the location settings whose forecast changed, or null if any may have.
+         */
+        public Set<String> getLocationSettings() {
+            return mLocationSettings;
+        }
+
+        /**
+         * @return the weather dates that changed, in ascending order, or null if any may have.
+         */
+        public long[] getDates() {
+            return mDates == null ? null : mDates.clone();
+        }
+
+        public boolean affectsLocation(String locationSetting) {
+            return mLocationSettings == null || mLocationSettings.contains(locationSetting);
+        }
+
+        Change merge(Change other) {
+            Set<String> locationSettings = null;
+            if (mLocationSettings != null && other.mLocationSettings != null) {
+                locationSettings = new TreeSet<String>(mLocationSettings);
+                locationSettings.addAll(other.mLocationSettings);
+            }
+            long[] dates = null;
+            if (mDates != null && other.mDates != null) {
+                dates = mergeDates(mDates, other.mDates);
+            }
+            return new Change(locationSettings, dates);
+        }
+
+        @Override
+        public String toString() {
+            return "Change{locations=" + mLocationSettings + ", dates=" +
+                    (mDates == null ? "null" : Arrays.toString(mDates)) + "}";
+        }
+    }
+
+    /**
+     * Called on the executor it subscribed with, never for two changes at once.
+     */
+    public interface Subscriber {
+        void onForecastChanged(Change change);
+    }
+
+    private static ForecastChangeBus sInstance;
+
+    private final Handler mHandler;
+    private final List<Subscription> mSubscriptions = new CopyOnWriteArrayList<Subscription>();
+
+    // The signals in the window that's open, if there is one.  Only touched on mHandler's thread.
+    private TreeSet<String> mPendingLocations;
+    private TreeSet<Long> mPendingDates;
+    private boolean mPendingAllDates;
+    private boolean mWindowOpen;
+
+    private final Runnable mCloseWindow = new Runnable() {
+        @Override
+        public void run() {
+            Change change = new Change(mPendingLocations.isEmpty() ? null : mPendingLocations,
+                    mPendingAllDates || mPendingDates.isEmpty() ? null : toArray(mPendingDates));
+            mWindowOpen = false;
+            mPendingLocations = null;
+            mPendingDates = null;
+            mPendingAllDates = false;
+            Log.d(LOG_TAG, "Forecast changed: " + change);
+            for (Subscription subscription : mSubscriptions) {
+                subscription.offer(change);
+            }
+        }
+    };
+
+    public static synchronized ForecastChangeBus getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ForecastChangeBus(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ForecastChangeBus(Context context) {
+        HandlerThread thread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+        // This also hears the notification for a whole batch, which goes to the provider's base
+        // uri, since observers of a uri hear about changes to its ancestors.
+        context.getContentResolver().registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_URI, true, new WeatherObserver(mHandler));
+    }
+
+    /**
+     * Starts delivering changes to {@code subscriber}, on {@code executor}, once no more have
+     * come in for {@code debounceMillis}.
+     */
+    public void subscribe(Subscriber subscriber, Executor executor, long debounceMillis) {
+        mSubscriptions.add(new Subscription(subscriber, executor, debounceMillis));
+    }
+
+    public void unsubscribe(Subscriber subscriber) {
+        for (Subscription subscription : mSubscriptions) {
+            if (subscription.mSubscriber == subscriber) {
+                mSubscriptions.remove(subscription);
+            }
+        }
+    }
+
+    /**
+     * Signals that the forecasts for {@code locationSettings} have been committed.
+     */
+    public void post(Collection<String> locationSettings) {
+        final List<String> locations = new ArrayList<String>(locationSettings);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                openWindow();
+                mPendingLocations.addAll(locations);
+            }
+        });
+    }
+
+    // Only on mHandler's thread.
+    private void openWindow() {
+        if (!mWindowOpen) {
+            mWindowOpen = true;
+            mPendingLocations = new TreeSet<String>();
+            mPendingDates = new TreeSet<Long>();
+            mHandler.postDelayed(mCloseWindow, COALESCE_WINDOW_MILLIS);
+        }
+    }
+
+    private final class WeatherObserver extends ContentObserver {
+
+        WeatherObserver(Handler handler) {
+            super(handler);
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+        public void onChange(boolean selfChange, Uri uri) {
+            openWindow();
+            // Before Jelly Bean there's no telling which dates a change was for.
+            long[] dates = uri == null ? null : WeatherContract.getChangedDatesFromUri(uri);
+            if (dates == null) {
+                mPendingAllDates = true;
+            } else {
+                for (long date : dates) {
+                    mPendingDates.add(date);
+                }
+            }
+        }
+    }
+
+    private final class Subscription implements Runnable {
+
+        final Subscriber mSubscriber;
+        private final Executor mExecutor;
+        private final long mDebounceMillis;
+
+        // Only touched on mHandler's thread.
+        private Change mPending;
+        private boolean mRunning;
+        private boolean mDue;
+
+        Subscription(Subscriber subscriber, Executor executor, long debounceMillis) {
+            mSubscriber = subscriber;
+            mExecutor = executor;
+            mDebounceMillis = debounceMillis;
+        }
+
+        void offer(Change change) {
+            mPending = mPending == null ? change : mPending.merge(change);
+            mHandler.removeCallbacks(this);
+            mHandler.postDelayed(this, mDebounceMillis);
+        }
+
+        /**
+         * Delivers what's pending, once the debounce is over.
+         */
+        @Override
+        public void run() {
+            if (mRunning) {
+                // Wait for the last delivery to finish, and take everything since in one go.
+                mDue = true;
+                return;
+            }
+            final Change change = mPending;
+            mPending = null;
+            mRunning = true;
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        mSubscriber.onForecastChanged(change);
+                    } finally {
+                        mHandler.post(mDelivered);
+                    }
+                }
+            });
+        }
+
+        private final Runnable mDelivered = new Runnable() {
+            @Override
+            public void run() {
+                mRunning = false;
+                if (mDue) {
+                    mDue = false;
+                    Subscription.this.run();
+                }
+            }
+        };
+    }
+
+    private static long[] toArray(Collection<Long> values) {
+        long[] array = new long[values.size()];
+        int i = 0;
+        for (Long value : values) {
+            array[i++] = value;
+        }
+        return array;
+    }
+
+    private static long[] mergeDates(long[] a, long[] b) {
+        long[] merged = new long[a.length + b.length];
+        int i = 0, j = 0, count = 0;
+        while (i < a.length || j < b.length) {
+            long next;
+            if (j == b.length || (i < a.length && a[i] <= b[j])) {
+                next = a[i++];
+            } else {
+                next = b[j++];
+            }
+            if (count == 0 || merged[count - 1] != next) {
+                merged[count++] = next;
+            }
+        }
+        return Arrays.copyOf(merged, count);
+    }
+}
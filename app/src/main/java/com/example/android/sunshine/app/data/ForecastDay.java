@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+/**
+ * One day of a {@link ForecastSeries}.  It only points at its place in the series, so it costs
+ * an object header and two fields however many columns the day has.
+ */
+public final class ForecastDay {
+
+    private final ForecastSeries mSeries;
+    private final int mIndex;
+
+    ForecastDay(ForecastSeries series, int index) {
+        mSeries = series;
+        mIndex = index;
+    }
+
+    public long getId() {
+        return mSeries.getId(mIndex);
+    }
+
+    public long getDate() {
+        return mSeries.getDate(mIndex);
+    }
+
+    public int getWeatherId() {
+        return mSeries.getWeatherId(mIndex);
+    }
+
+    public String getDescription() {
+        return mSeries.getDescription(mIndex);
+    }
+
+    public double getMaxTemp() {
+        return mSeries.getMaxTemp(mIndex);
+    }
+
+    public double getMinTemp() {
+        return mSeries.getMinTemp(mIndex);
+    }
+
+    public double getHumidity() {
+        return mSeries.getHumidity(mIndex);
+    }
+
+    public double getPressure() {
+        return mSeries.getPressure(mIndex);
+    }
+
+    public double getWindSpeed() {
+        return mSeries.getWindSpeed(mIndex);
+    }
+
+    public double getDegrees() {
+        return mSeries.getDegrees(mIndex);
+    }
+}
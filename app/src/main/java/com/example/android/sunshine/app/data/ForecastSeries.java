@@ -0,0 +1,668 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Bundle;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+
+/**
+ * A run of forecast days for one location, held column by column in primitive arrays.
+ *
+ * This is what the sync adapter parses a forecast into and hands to the provider, and what the
+ * forecast list, the detail view and the widgets read their rows out of, so none of them box a
+ * value per column in a ContentValues, or keep their own projection and column indices.
+ *
+ * A series never changes once built.  Days are usually in date order, which
+ * {@link #indexOfDate} relies on; everything read from the provider is, as long as it's sorted
+ * by date.
+ */
+public final class ForecastSeries {
+
+    /**
+     * The projection to query the provider's weather URIs with, which join in the location.
+     * The _ID has to be qualified there, since both tables have one.
+     */
+    public static final String[] COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    // The same, for the weather table on its own.
+    static final String[] WEATHER_COLUMNS = {
+            WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    // The columns that describe a day's weather, as opposed to which day it is and where, in the
+    // order bindWeather binds them.
+    static final String[] WEATHER_DATA_COLUMNS = {
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    // A mask of every one of WEATHER_DATA_COLUMNS, see getChangedWeatherColumns.
+    static final int ALL_WEATHER_DATA_COLUMNS = (1 << WEATHER_DATA_COLUMNS.length) - 1;
+
+    // Bundle keys, see toBundle.
+    private static final String KEY_IDS = "ids";
+    private static final String KEY_DATES = "dates";
+    private static final String KEY_WEATHER_IDS = "weather_ids";
+    private static final String KEY_DESCRIPTIONS = "descriptions";
+    private static final String KEY_MAX_TEMPS = "max_temps";
+    private static final String KEY_MIN_TEMPS = "min_temps";
+    private static final String KEY_HUMIDITIES = "humidities";
+    private static final String KEY_PRESSURES = "pressures";
+    private static final String KEY_WIND_SPEEDS = "wind_speeds";
+    private static final String KEY_DEGREES = "degrees";
+    private static final String KEY_LOCATION_SETTING = "location_setting";
+    private static final String KEY_COORD_LAT = "coord_lat";
+    private static final String KEY_COORD_LONG = "coord_long";
+
+    private static final ForecastSeries EMPTY = new Builder(0).build();
+
+    private final int mSize;
+    // Row ids are 0 for days that didn't come out of the database.
+    private final long[] mIds;
+    private final long[] mDates;
+    private final int[] mWeatherIds;
+    private final String[] mDescriptions;
+    private final double[] mMaxTemps;
+    private final double[] mMinTemps;
+    private final double[] mHumidities;
+    private final double[] mPressures;
+    private final double[] mWindSpeeds;
+    private final double[] mDegrees;
+
+    private final String mLocationSetting;
+    private final double mCoordLat;
+    private final double mCoordLong;
+
+    private ForecastSeries(int size, long[] ids, long[] dates, int[] weatherIds,
+            String[] descriptions, double[] maxTemps, double[] minTemps, double[] humidities,
+            double[] pressures, double[] windSpeeds, double[] degrees,
+            String locationSetting, double coordLat, double coordLong) {
+        mSize = size;
+        mIds = ids;
+        mDates = dates;
+        mWeatherIds = weatherIds;
+        mDescriptions = descriptions;
+        mMaxTemps = maxTemps;
+        mMinTemps = minTemps;
+        mHumidities = humidities;
+        mPressures = pressures;
+        mWindSpeeds = windSpeeds;
+        mDegrees = degrees;
+        mLocationSetting = locationSetting;
+        mCoordLat = coordLat;
+        mCoordLong = coordLong;
+    }
+
+    public static ForecastSeries empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Copies every row of {@code cursor} into a series, one primitive column at a time.  Columns
+     * are found by name, so any projection will do; the ones it leaves out read as 0, or null.
+     * The cursor's position is left after its last row, and closing it is up to the caller.
+     */
+    public static ForecastSeries fromCursor(Cursor cursor) {
+        if (cursor == null) {
+            return EMPTY;
+        }
+        int size = cursor.getCount();
+        long[] ids = new long[size];
+        long[] dates = new long[size];
+        int[] weatherIds = new int[size];
+        String[] descriptions = new String[size];
+        double[] maxTemps = new double[size];
+        double[] minTemps = new double[size];
+        double[] humidities = new double[size];
+        double[] pressures = new double[size];
+        double[] windSpeeds = new double[size];
+        double[] degrees = new double[size];
+
+        int idIndex = cursor.getColumnIndex(WeatherEntry._ID);
+        int dateIndex = cursor.getColumnIndex(WeatherEntry.COLUMN_DATE);
+        int weatherIdIndex = cursor.getColumnIndex(WeatherEntry.COLUMN_WEATHER_ID);
+        int descriptionIndex = cursor.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC);
+        int maxTempIndex = cursor.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP);
+        int minTempIndex = cursor.getColumnIndex(WeatherEntry.COLUMN_MIN_TEMP);
+        int humidityIndex = cursor.getColumnIndex(WeatherEntry.COLUMN_HUMIDITY);
+        int pressureIndex = cursor.getColumnIndex(WeatherEntry.COLUMN_PRESSURE);
+        int windSpeedIndex = cursor.getColumnIndex(WeatherEntry.COLUMN_WIND_SPEED);
+        int degreesIndex = cursor.getColumnIndex(WeatherEntry.COLUMN_DEGREES);
+        int locationSettingIndex = cursor.getColumnIndex(LocationEntry.COLUMN_LOCATION_SETTING);
+        int coordLatIndex = cursor.getColumnIndex(LocationEntry.COLUMN_COORD_LAT);
+        int coordLongIndex = cursor.getColumnIndex(LocationEntry.COLUMN_COORD_LONG);
+
+        String locationSetting = null;
+        double coordLat = Double.NaN;
+        double coordLong = Double.NaN;
+
+        cursor.moveToPosition(-1);
+        for (int i = 0; cursor.moveToNext(); i++) {
+            if (idIndex != -1) ids[i] = cursor.getLong(idIndex);
+            if (dateIndex != -1) dates[i] = cursor.getLong(dateIndex);
+            if (weatherIdIndex != -1) weatherIds[i] = cursor.getInt(weatherIdIndex);
+            if (descriptionIndex != -1) descriptions[i] = cursor.getString(descriptionIndex);
+            if (maxTempIndex != -1) maxTemps[i] = cursor.getDouble(maxTempIndex);
+            if (minTempIndex != -1) minTemps[i] = cursor.getDouble(minTempIndex);
+            if (humidityIndex != -1) humidities[i] = cursor.getDouble(humidityIndex);
+            if (pressureIndex != -1) pressures[i] = cursor.getDouble(pressureIndex);
+            if (windSpeedIndex != -1) windSpeeds[i] = cursor.getDouble(windSpeedIndex);
+            if (degreesIndex != -1) degrees[i] = cursor.getDouble(degreesIndex);
+            if (i == 0) {
+                // Every row carries the same location.
+                if (locationSettingIndex != -1) {
+                    locationSetting = cursor.getString(locationSettingIndex);
+                }
+                if (coordLatIndex != -1) coordLat = cursor.getDouble(coordLatIndex);
+                if (coordLongIndex != -1) coordLong = cursor.getDouble(coordLongIndex);
+            }
+        }
+        return new ForecastSeries(size, ids, dates, weatherIds, descriptions, maxTemps, minTemps,
+                humidities, pressures, windSpeeds, degrees, locationSetting, coordLat, coordLong);
+    }
+
+    /**
+     * Puts the series into a Bundle as one array per column, for
+     * {@link android.content.ContentResolver#call}.  Within our own process the Bundle is handed
+     * to the provider as is, so nothing gets copied on the way.
+     */
+    public Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        bundle.putLongArray(KEY_IDS, trim(mIds));
+        bundle.putLongArray(KEY_DATES, trim(mDates));
+        bundle.putIntArray(KEY_WEATHER_IDS, mWeatherIds.length == mSize
+                ? mWeatherIds : Arrays.copyOf(mWeatherIds, mSize));
+        bundle.putStringArray(KEY_DESCRIPTIONS, mDescriptions.length == mSize
+                ? mDescriptions : Arrays.copyOf(mDescriptions, mSize));
+        bundle.putDoubleArray(KEY_MAX_TEMPS, trim(mMaxTemps));
+        bundle.putDoubleArray(KEY_MIN_TEMPS, trim(mMinTemps));
+        bundle.putDoubleArray(KEY_HUMIDITIES, trim(mHumidities));
+        bundle.putDoubleArray(KEY_PRESSURES, trim(mPressures));
+        bundle.putDoubleArray(KEY_WIND_SPEEDS, trim(mWindSpeeds));
+        bundle.putDoubleArray(KEY_DEGREES, trim(mDegrees));
+        bundle.putString(KEY_LOCATION_SETTING, mLocationSetting);
+        bundle.putDouble(KEY_COORD_LAT, mCoordLat);
+        bundle.putDouble(KEY_COORD_LONG, mCoordLong);
+        return bundle;
+    }
+
+    /**
+     * @return the series {@link #toBundle} put in {@code bundle}, or null if there isn't one.
+     */
+    public static ForecastSeries fromBundle(Bundle bundle) {
+        long[] dates = bundle == null ? null : bundle.getLongArray(KEY_DATES);
+        if (dates == null) {
+            return null;
+        }
+        int size = dates.length;
+        long[] ids = bundle.getLongArray(KEY_IDS);
+        int[] weatherIds = bundle.getIntArray(KEY_WEATHER_IDS);
+        String[] descriptions = bundle.getStringArray(KEY_DESCRIPTIONS);
+        double[] maxTemps = bundle.getDoubleArray(KEY_MAX_TEMPS);
+        double[] minTemps = bundle.getDoubleArray(KEY_MIN_TEMPS);
+        double[] humidities = bundle.getDoubleArray(KEY_HUMIDITIES);
+        double[] pressures = bundle.getDoubleArray(KEY_PRESSURES);
+        double[] windSpeeds = bundle.getDoubleArray(KEY_WIND_SPEEDS);
+        double[] degrees = bundle.getDoubleArray(KEY_DEGREES);
+        if (ids == null || ids.length != size || weatherIds == null || weatherIds.length != size ||
+                descriptions == null || descriptions.length != size ||
+                maxTemps == null || maxTemps.length != size ||
+                minTemps == null || minTemps.length != size ||
+                humidities == null || humidities.length != size ||
+                pressures == null || pressures.length != size ||
+                windSpeeds == null || windSpeeds.length != size ||
+                degrees == null || degrees.length != size) {
+            throw new IllegalArgumentException("Incomplete forecast in bundle");
+        }
+        return new ForecastSeries(size, ids, dates, weatherIds, descriptions, maxTemps, minTemps,
+                humidities, pressures, windSpeeds, degrees,
+                bundle.getString(KEY_LOCATION_SETTING),
+                bundle.getDouble(KEY_COORD_LAT, Double.NaN),
+                bundle.getDouble(KEY_COORD_LONG, Double.NaN));
+    }
+
+    /**
+     * Joins the first {@code count} of {@code parts} into one series, in order, such as the pages
+     * of a longer forecast.  The location is the first part's that has one.
+     */
+    public static ForecastSeries concat(ForecastSeries[] parts, int count) {
+        if (count == 0) {
+            return EMPTY;
+        } else if (count == 1) {
+            return parts[0];
+        }
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            size += parts[i].mSize;
+        }
+        long[] ids = new long[size];
+        long[] dates = new long[size];
+        int[] weatherIds = new int[size];
+        String[] descriptions = new String[size];
+        double[] maxTemps = new double[size];
+        double[] minTemps = new double[size];
+        double[] humidities = new double[size];
+        double[] pressures = new double[size];
+        double[] windSpeeds = new double[size];
+        double[] degrees = new double[size];
+
+        String locationSetting = null;
+        double coordLat = Double.NaN;
+        double coordLong = Double.NaN;
+
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+            ForecastSeries part = parts[i];
+            int n = part.mSize;
+            System.arraycopy(part.mIds, 0, ids, offset, n);
+            System.arraycopy(part.mDates, 0, dates, offset, n);
+            System.arraycopy(part.mWeatherIds, 0, weatherIds, offset, n);
+            System.arraycopy(part.mDescriptions, 0, descriptions, offset, n);
+            System.arraycopy(part.mMaxTemps, 0, maxTemps, offset, n);
+            System.arraycopy(part.mMinTemps, 0, minTemps, offset, n);
+            System.arraycopy(part.mHumidities, 0, humidities, offset, n);
+            System.arraycopy(part.mPressures, 0, pressures, offset, n);
+            System.arraycopy(part.mWindSpeeds, 0, windSpeeds, offset, n);
+            System.arraycopy(part.mDegrees, 0, degrees, offset, n);
+            offset += n;
+            if (locationSetting == null && part.mLocationSetting != null) {
+                locationSetting = part.mLocationSetting;
+                coordLat = part.mCoordLat;
+                coordLong = part.mCoordLong;
+            }
+        }
+        return new ForecastSeries(size, ids, dates, weatherIds, descriptions, maxTemps, minTemps,
+                humidities, pressures, windSpeeds, degrees, locationSetting, coordLat, coordLong);
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public ForecastDay getDay(int day) {
+        checkIndex(day);
+        return new ForecastDay(this, day);
+    }
+
+    public long getId(int day) {
+        checkIndex(day);
+        return mIds[day];
+    }
+
+    public long getDate(int day) {
+        checkIndex(day);
+        return mDates[day];
+    }
+
+    public int getWeatherId(int day) {
+        checkIndex(day);
+        return mWeatherIds[day];
+    }
+
+    public String getDescription(int day) {
+        checkIndex(day);
+        return mDescriptions[day];
+    }
+
+    public double getMaxTemp(int day) {
+        checkIndex(day);
+        return mMaxTemps[day];
+    }
+
+    public double getMinTemp(int day) {
+        checkIndex(day);
+        return mMinTemps[day];
+    }
+
+    public double getHumidity(int day) {
+        checkIndex(day);
+        return mHumidities[day];
+    }
+
+    public double getPressure(int day) {
+        checkIndex(day);
+        return mPressures[day];
+    }
+
+    public double getWindSpeed(int day) {
+        checkIndex(day);
+        return mWindSpeeds[day];
+    }
+
+    public double getDegrees(int day) {
+        checkIndex(day);
+        return mDegrees[day];
+    }
+
+    /**
+     * @return the location setting the days are for, or null if the series doesn't say.
+     */
+    public String getLocationSetting() {
+        return mLocationSetting;
+    }
+
+    public boolean hasCoordinates() {
+        return !Double.isNaN(mCoordLat) && !Double.isNaN(mCoordLong);
+    }
+
+    public double getCoordLat() {
+        return mCoordLat;
+    }
+
+    public double getCoordLong() {
+        return mCoordLong;
+    }
+
+    /**
+     * Finds a day by binary search, so the days must be in ascending date order.
+     *
+     * @return the index of the day with that date, or -1.
+     */
+    public int indexOfDate(long date) {
+        int index = Arrays.binarySearch(mDates, 0, mSize, date);
+        return index < 0 ? -1 : index;
+    }
+
+    /**
+     * @return whether day {@code day} of this series has the same weather as day
+     * {@code otherDay} of {@code other}, ignoring row ids, dates and location.
+     */
+    public boolean hasSameWeather(int day, ForecastSeries other, int otherDay) {
+        return getChangedWeatherColumns(day, other, otherDay) == 0;
+    }
+
+    /**
+     * @return a mask of the {@link #WEATHER_DATA_COLUMNS} whose values differ between day
+     * {@code day} of this series and day {@code otherDay} of {@code other}, with bit i standing
+     * for column i, or 0 if none do.
+     */
+    int getChangedWeatherColumns(int day, ForecastSeries other, int otherDay) {
+        checkIndex(day);
+        other.checkIndex(otherDay);
+        int changed = 0;
+        if (mWeatherIds[day] != other.mWeatherIds[otherDay]) {
+            changed |= 1;
+        }
+        if (!equal(mDescriptions[day], other.mDescriptions[otherDay])) {
+            changed |= 1 << 1;
+        }
+        if (mMaxTemps[day] != other.mMaxTemps[otherDay]) {
+            changed |= 1 << 2;
+        }
+        if (mMinTemps[day] != other.mMinTemps[otherDay]) {
+            changed |= 1 << 3;
+        }
+        if (mHumidities[day] != other.mHumidities[otherDay]) {
+            changed |= 1 << 4;
+        }
+        if (mPressures[day] != other.mPressures[otherDay]) {
+            changed |= 1 << 5;
+        }
+        if (mWindSpeeds[day] != other.mWindSpeeds[otherDay]) {
+            changed |= 1 << 6;
+        }
+        if (mDegrees[day] != other.mDegrees[otherDay]) {
+            changed |= 1 << 7;
+        }
+        return changed;
+    }
+
+    /**
+     * Binds day {@code day}'s {@link #WEATHER_DATA_COLUMNS} to {@code statement}, starting at
+     * bind argument {@code firstIndex}.
+     *
+     * @return the index of the next bind argument.
+     */
+    int bindWeather(int day, SQLiteStatement statement, int firstIndex) {
+        return bindWeather(day, statement, firstIndex, ALL_WEATHER_DATA_COLUMNS);
+    }
+
+    /**
+     * Like {@link #bindWeather(int, SQLiteStatement, int)}, but only binds the columns in
+     * {@code columns}, a mask like {@link #getChangedWeatherColumns} returns, in the same order.
+     */
+    int bindWeather(int day, SQLiteStatement statement, int firstIndex, int columns) {
+        checkIndex(day);
+        int index = firstIndex;
+        if ((columns & 1) != 0) {
+            statement.bindLong(index++, mWeatherIds[day]);
+        }
+        if ((columns & 1 << 1) != 0) {
+            if (mDescriptions[day] == null) {
+                statement.bindNull(index++);
+            } else {
+                statement.bindString(index++, mDescriptions[day]);
+            }
+        }
+        if ((columns & 1 << 2) != 0) {
+            statement.bindDouble(index++, mMaxTemps[day]);
+        }
+        if ((columns & 1 << 3) != 0) {
+            statement.bindDouble(index++, mMinTemps[day]);
+        }
+        if ((columns & 1 << 4) != 0) {
+            statement.bindDouble(index++, mHumidities[day]);
+        }
+        if ((columns & 1 << 5) != 0) {
+            statement.bindDouble(index++, mPressures[day]);
+        }
+        if ((columns & 1 << 6) != 0) {
+            statement.bindDouble(index++, mWindSpeeds[day]);
+        }
+        if ((columns & 1 << 7) != 0) {
+            statement.bindDouble(index++, mDegrees[day]);
+        }
+        return index;
+    }
+
+    /**
+     * @return the date and weather of day {@code day}, without the location key, for the
+     * provider calls that only take ContentValues.
+     */
+    public ContentValues toContentValues(int day) {
+        checkIndex(day);
+        ContentValues values = new ContentValues(WEATHER_DATA_COLUMNS.length + 2);
+        values.put(WeatherEntry.COLUMN_DATE, mDates[day]);
+        values.put(WeatherEntry.COLUMN_WEATHER_ID, mWeatherIds[day]);
+        values.put(WeatherEntry.COLUMN_SHORT_DESC, mDescriptions[day]);
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, mMaxTemps[day]);
+        values.put(WeatherEntry.COLUMN_MIN_TEMP, mMinTemps[day]);
+        values.put(WeatherEntry.COLUMN_HUMIDITY, mHumidities[day]);
+        values.put(WeatherEntry.COLUMN_PRESSURE, mPressures[day]);
+        values.put(WeatherEntry.COLUMN_WIND_SPEED, mWindSpeeds[day]);
+        values.put(WeatherEntry.COLUMN_DEGREES, mDegrees[day]);
+        return values;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ForecastSeries)) return false;
+        ForecastSeries other = (ForecastSeries) o;
+        if (mSize != other.mSize || !equal(mLocationSetting, other.mLocationSetting) ||
+                Double.compare(mCoordLat, other.mCoordLat) != 0 ||
+                Double.compare(mCoordLong, other.mCoordLong) != 0) {
+            return false;
+        }
+        for (int i = 0; i < mSize; i++) {
+            if (mIds[i] != other.mIds[i] || mDates[i] != other.mDates[i] ||
+                    !hasSameWeather(i, other, i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mSize;
+        for (int i = 0; i < mSize; i++) {
+            result = 31 * result + (int) (mDates[i] ^ (mDates[i] >>> 32));
+            result = 31 * result + mWeatherIds[i];
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "ForecastSeries{" + mSize + " days" +
+                (mSize > 0 ? ", " + mDates[0] + ".." + mDates[mSize - 1] : "") + "}";
+    }
+
+    private void checkIndex(int day) {
+        if (day < 0 || day >= mSize) {
+            throw new IndexOutOfBoundsException("Day " + day + " of " + mSize);
+        }
+    }
+
+    private long[] trim(long[] column) {
+        return column.length == mSize ? column : Arrays.copyOf(column, mSize);
+    }
+
+    private double[] trim(double[] column) {
+        return column.length == mSize ? column : Arrays.copyOf(column, mSize);
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Collects days one at a time, as the forecast parser reports them.
+     */
+    public static final class Builder {
+        private int mSize;
+        private long[] mDates;
+        private int[] mWeatherIds;
+        private String[] mDescriptions;
+        private double[] mMaxTemps;
+        private double[] mMinTemps;
+        private double[] mHumidities;
+        private double[] mPressures;
+        private double[] mWindSpeeds;
+        private double[] mDegrees;
+
+        private String mLocationSetting;
+        private double mCoordLat = Double.NaN;
+        private double mCoordLong = Double.NaN;
+
+        private boolean mBuilt;
+
+        /**
+         * @param capacity how many days to make room for up front.  More can still be added.
+         */
+        public Builder(int capacity) {
+            allocate(capacity);
+        }
+
+        public Builder setLocation(String locationSetting, double coordLat, double coordLong) {
+            mLocationSetting = locationSetting;
+            mCoordLat = coordLat;
+            mCoordLong = coordLong;
+            return this;
+        }
+
+        public Builder addDay(long date, int weatherId, String description, double maxTemp,
+                double minTemp, double humidity, double pressure, double windSpeed,
+                double degrees) {
+            if (mBuilt) {
+                throw new IllegalStateException("Series already built");
+            }
+            if (mSize == mDates.length) {
+                allocate(Math.max(16, mSize * 2));
+            }
+            mDates[mSize] = date;
+            mWeatherIds[mSize] = weatherId;
+            mDescriptions[mSize] = description;
+            mMaxTemps[mSize] = maxTemp;
+            mMinTemps[mSize] = minTemp;
+            mHumidities[mSize] = humidity;
+            mPressures[mSize] = pressure;
+            mWindSpeeds[mSize] = windSpeed;
+            mDegrees[mSize] = degrees;
+            mSize++;
+            return this;
+        }
+
+        public int size() {
+            return mSize;
+        }
+
+        /**
+         * Hands the arrays over to the series, so a builder can only build once.
+         */
+        public ForecastSeries build() {
+            mBuilt = true;
+            return new ForecastSeries(mSize, new long[mSize], mDates, mWeatherIds, mDescriptions,
+                    mMaxTemps, mMinTemps, mHumidities, mPressures, mWindSpeeds, mDegrees,
+                    mLocationSetting, mCoordLat, mCoordLong);
+        }
+
+        private void allocate(int capacity) {
+            mDates = mDates == null ? new long[capacity] : Arrays.copyOf(mDates, capacity);
+            mWeatherIds = mWeatherIds == null
+                    ? new int[capacity] : Arrays.copyOf(mWeatherIds, capacity);
+            mDescriptions = mDescriptions == null
+                    ? new String[capacity] : Arrays.copyOf(mDescriptions, capacity);
+            mMaxTemps = grow(mMaxTemps, capacity);
+            mMinTemps = grow(mMinTemps, capacity);
+            mHumidities = grow(mHumidities, capacity);
+            mPressures = grow(mPressures, capacity);
+            mWindSpeeds = grow(mWindSpeeds, capacity);
+            mDegrees = grow(mDegrees, capacity);
+        }
+
+        private static double[] grow(double[] column, int capacity) {
+            return column == null ? new double[capacity] : Arrays.copyOf(column, capacity);
+        }
+    }
+}
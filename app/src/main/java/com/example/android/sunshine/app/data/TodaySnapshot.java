@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.sunshine.app.Utility;
+
+/**
+ * Today's weather for the preferred location, which the watch, the notification, the Today
+ * widget and Muzei all show.
+ *
+ * The sync adapter loads it once after each sync and publishes it here, and those consumers read
+ * the published copy instead of each querying the provider for the same row.  A snapshot never
+ * changes once made, and publishing one is a single volatile write, so reading needs no lock.
+ */
+public final class TodaySnapshot {
+
+    private static volatile TodaySnapshot sCurrent;
+
+    public final String locationSetting;
+    // The day the snapshot was taken for.  The forecast's own date can be later, if the
+    // database had nothing for that day.
+    public final long day;
+    public final long date;
+    public final int weatherId;
+    public final String description;
+    public final double high;
+    public final double low;
+
+    private TodaySnapshot(String locationSetting, long day, long date, int weatherId,
+            String description, double high, double low) {
+        this.locationSetting = locationSetting;
+        this.day = day;
+        this.date = date;
+        this.weatherId = weatherId;
+        this.description = description;
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * @return today's weather for the preferred location, or null if the database has none.
+     * Outside a sync this normally costs no query at all; the provider is only asked when
+     * nothing has been published yet in this process, or what was published has gone stale.
+     */
+    public static TodaySnapshot get(Context context) {
+        String locationSetting = Utility.getPreferredLocation(context);
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        TodaySnapshot snapshot = sCurrent;
+        if (snapshot != null && snapshot.day == today &&
+                snapshot.locationSetting.equals(locationSetting)) {
+            return snapshot;
+        }
+        snapshot = load(context, locationSetting, today);
+        if (snapshot != null) {
+            sCurrent = snapshot;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Loads today's weather for the preferred location and publishes it.  The sync adapter calls
+     * this once it has committed a forecast, before telling anyone about it.
+     *
+     * @return the new snapshot, or null if the database has none.
+     */
+    public static TodaySnapshot refresh(Context context) {
+        String locationSetting = Utility.getPreferredLocation(context);
+        TodaySnapshot snapshot = load(context, locationSetting,
+                WeatherContract.normalizeDate(System.currentTimeMillis()));
+        sCurrent = snapshot;
+        return snapshot;
+    }
+
+    private static TodaySnapshot load(Context context, String locationSetting, long today) {
+        // The first day from today on, which is today unless that's missing.
+        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                locationSetting, today);
+        Cursor cursor = context.getContentResolver().query(weatherUri, ForecastSeries.COLUMNS,
+                null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        ForecastSeries forecast;
+        try {
+            forecast = ForecastSeries.fromCursor(cursor);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        if (forecast.size() == 0) {
+            return null;
+        }
+        return new TodaySnapshot(locationSetting, today,
+                forecast.getDate(0),
+                forecast.getWeatherId(0),
+                forecast.getDescription(0),
+                forecast.getMaxTemp(0),
+                forecast.getMinTemp(0));
+    }
+}
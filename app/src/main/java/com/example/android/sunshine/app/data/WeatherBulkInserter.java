@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Inserts many weather rows through compiled INSERT statements.
+ *
+ * {@link SQLiteDatabase#insert} compiles a fresh statement for every row.  This compiles one
+ * statement per distinct set of columns, and binds each row's values straight into it.  Dates
+ * are normalized as they're bound, rather than being boxed back into the ContentValues.
+ *
+ * An inserter is good for one batch: the caller owns the transaction, and must {@link #close()}
+ * the inserter before ending it.
+ */
+class WeatherBulkInserter {
+    private static final String LOG_TAG = WeatherBulkInserter.class.getSimpleName();
+
+    private final SQLiteDatabase mDb;
+    private final String mTable;
+
+    // Statements keyed by their column list, in the order the ContentValues hand them to us.
+    private final Map<String, Statement> mStatements = new HashMap<String, Statement>();
+    private final StringBuilder mKeyBuilder = new StringBuilder();
+
+    private final long mStartNanos = System.nanoTime();
+    private int mRowCount;
+
+    private static class Statement {
+        final SQLiteStatement statement;
+        // The index of the date column among the bind arguments, or -1.
+        final int dateIndex;
+
+        Statement(SQLiteStatement statement, int dateIndex) {
+            this.statement = statement;
+            this.dateIndex = dateIndex;
+        }
+    }
+
+    WeatherBulkInserter(SQLiteDatabase db, String table) {
+        mDb = db;
+        mTable = table;
+    }
+
+    /**
+     * @return the row ID of the inserted row, or -1 if it couldn't be inserted.
+     */
+    long insert(ContentValues values) {
+        Statement statement = getStatement(values);
+        SQLiteStatement insert = statement.statement;
+        insert.clearBindings();
+
+        int index = 1;
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            Object value = entry.getValue();
+            if (index == statement.dateIndex && value instanceof Number) {
+                insert.bindLong(index,
+                        WeatherContract.normalizeDate(((Number) value).longValue()));
+            } else {
+                bind(insert, index, value);
+            }
+            index++;
+        }
+
+        try {
+            long rowId = insert.executeInsert();
+            mRowCount++;
+            return rowId;
+        } catch (SQLException e) {
+            // Like SQLiteDatabase.insert, a row that breaks a constraint is skipped, not fatal.
+            Log.e(LOG_TAG, "Error inserting " + values, e);
+            return -1;
+        }
+    }
+
+    /**
+     * Releases the compiled statements, and logs how long the batch took.
+     */
+    void close() {
+        for (Statement statement : mStatements.values()) {
+            statement.statement.close();
+        }
+        mStatements.clear();
+
+        long elapsedMicros = (System.nanoTime() - mStartNanos) / 1000;
+        Log.d(LOG_TAG, "Inserted " + mRowCount + " rows into " + mTable + " in " +
+                elapsedMicros + "us");
+    }
+
+    private Statement getStatement(ContentValues values) {
+        StringBuilder key = mKeyBuilder;
+        key.setLength(0);
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            key.append(entry.getKey()).append(',');
+        }
+
+        String columns = key.toString();
+        Statement statement = mStatements.get(columns);
+        if (statement == null) {
+            statement = compile(values);
+            mStatements.put(columns, statement);
+        }
+        return statement;
+    }
+
+    private Statement compile(ContentValues values) {
+        StringBuilder sql = new StringBuilder();
+        sql.append("INSERT INTO ").append(mTable).append(" (");
+        int dateIndex = -1;
+        int count = 0;
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            if (count > 0) sql.append(',');
+            sql.append(entry.getKey());
+            count++;
+            if (WeatherContract.WeatherEntry.COLUMN_DATE.equals(entry.getKey())) {
+                dateIndex = count;
+            }
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < count; i++) {
+            sql.append(i > 0 ? ",?" : "?");
+        }
+        sql.append(')');
+        return new Statement(mDb.compileStatement(sql.toString()), dateIndex);
+    }
+
+    private static void bind(SQLiteStatement statement, int index, Object value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else if (value instanceof Double || value instanceof Float) {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            statement.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            statement.bindLong(index, (Boolean) value ? 1 : 0);
+        } else if (value instanceof byte[]) {
+            statement.bindBlob(index, (byte[]) value);
+        } else {
+            statement.bindString(index, value.toString());
+        }
+    }
+}
@@ -21,6 +21,8 @@ import android.net.Uri;
 import android.provider.BaseColumns;
 import android.text.format.Time;
 
+import java.util.Collection;
+
 /**
  * Defines table and column names for the weather database.
  */
@@ -44,6 +46,32 @@ public class WeatherContract {
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
 
+    // Change notifications from the provider carry the (normalized) dates they affected in this
+    // query parameter, as a comma separated list, when the provider knows them.
+    public static final String PARAM_CHANGED_DATES = "changed_dates";
+
+    // Passed to ContentResolver.call to have the provider checkpoint the database's write-ahead
+    // log, once a sync is done writing.
+    public static final String METHOD_CHECKPOINT = "checkpoint";
+
+    // Passed to ContentResolver.call with a ForecastSeries.toBundle() as the extras, to have the
+    // provider merge the series into the weather table the way a merge URI's bulkInsert would.
+    // The extras also need EXTRA_LOCATION_ID, and may have EXTRA_PRUNE_BEFORE; the result has
+    // the number of rows changed in EXTRA_CHANGED_COUNT.
+    public static final String METHOD_MERGE_FORECAST = "merge_forecast";
+    public static final String EXTRA_LOCATION_ID = "location_id";
+    public static final String EXTRA_PRUNE_BEFORE = "prune_before";
+    public static final String EXTRA_CHANGED_COUNT = "changed_count";
+
+    // Like METHOD_MERGE_FORECAST, for the forecasts of several locations at once, in one
+    // transaction with one change notification.  EXTRA_FORECASTS holds a Bundle per location,
+    // each a ForecastSeries.toBundle() with either EXTRA_LOCATION_ID, or EXTRA_LOCATION_VALUES
+    // for a location that isn't stored yet and is inserted first.  EXTRA_PRUNE_BEFORE and
+    // EXTRA_CHANGED_COUNT go in the extras and the result as for METHOD_MERGE_FORECAST.
+    public static final String METHOD_MERGE_FORECASTS = "merge_forecasts";
+    public static final String EXTRA_FORECASTS = "forecasts";
+    public static final String EXTRA_LOCATION_VALUES = "location_values";
+
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
     public static long normalizeDate(long startDate) {
@@ -54,6 +82,35 @@ public class WeatherContract {
         return time.setJulianDay(julianDay);
     }
 
+    public static Uri buildChangeUri(Uri uri, Collection<Long> changedDates) {
+        if (changedDates.isEmpty()) {
+            return uri;
+        }
+        StringBuilder dates = new StringBuilder();
+        for (Long date : changedDates) {
+            if (dates.length() > 0) dates.append(',');
+            dates.append(date);
+        }
+        return uri.buildUpon()
+                .appendQueryParameter(PARAM_CHANGED_DATES, dates.toString()).build();
+    }
+
+    /**
+     * @return the dates a change notification affected, or null if it doesn't say.
+     */
+    public static long[] getChangedDatesFromUri(Uri uri) {
+        String datesString = uri.getQueryParameter(PARAM_CHANGED_DATES);
+        if (null == datesString || datesString.length() == 0) {
+            return null;
+        }
+        String[] dateStrings = datesString.split(",");
+        long[] dates = new long[dateStrings.length];
+        for (int i = 0; i < dateStrings.length; i++) {
+            dates[i] = Long.parseLong(dateStrings[i]);
+        }
+        return dates;
+    }
+
     /* Inner class that defines the table contents of the location table */
     public static final class LocationEntry implements BaseColumns {
 
@@ -99,6 +156,11 @@ public class WeatherContract {
 
         public static final String TABLE_NAME = "weather";
 
+        public static final String PARAM_MERGE = "merge";
+        public static final String PARAM_PRUNE_BEFORE = "prune_before";
+        public static final String PARAM_AFTER_DATE = "after";
+        public static final String PARAM_LIMIT = "limit";
+
         // Column with the foreign key into the location table.
         public static final String COLUMN_LOC_KEY = "location_id";
         // Date, stored as long in milliseconds since the epoch
@@ -130,6 +192,22 @@ public class WeatherContract {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
 
+        /*
+            Inserting into a merge URI keeps the stored row for each day that's already there,
+            only updating the columns that changed, so its _ID stays put.  A bulk insert into a
+            merge URI with a prune date also deletes every day before that date, in the same
+            transaction, and returns the number of rows it inserted, updated or deleted.
+         */
+        public static Uri buildWeatherMergeUri() {
+            return CONTENT_URI.buildUpon().appendQueryParameter(PARAM_MERGE, "true").build();
+        }
+
+        public static Uri buildWeatherMergeUri(long pruneBeforeDate) {
+            return CONTENT_URI.buildUpon().appendQueryParameter(PARAM_MERGE, "true")
+                    .appendQueryParameter(PARAM_PRUNE_BEFORE,
+                            Long.toString(normalizeDate(pruneBeforeDate))).build();
+        }
+
         /*
             Student: This is the buildWeatherLocation function you filled in.
          */
@@ -144,6 +222,18 @@ public class WeatherContract {
                     .appendQueryParameter(COLUMN_DATE, Long.toString(normalizedDate)).build();
         }
 
+        /*
+            One page of the days a weather location URI covers: at most limit of them, starting
+            with the first one dated after afterDate.  Sorted by date, the last day of a page is
+            where the next one picks up, however many days there are before it.
+         */
+        public static Uri buildWeatherLocationPage(Uri weatherLocationUri, long afterDate,
+                int limit) {
+            return weatherLocationUri.buildUpon()
+                    .appendQueryParameter(PARAM_AFTER_DATE, Long.toString(afterDate))
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit)).build();
+        }
+
         public static Uri buildWeatherLocationWithDate(String locationSetting, long date) {
             return CONTENT_URI.buildUpon().appendPath(locationSetting)
                     .appendPath(Long.toString(normalizeDate(date))).build();
@@ -157,6 +247,18 @@ public class WeatherContract {
             return Long.parseLong(uri.getPathSegments().get(2));
         }
 
+        public static boolean isMergeUri(Uri uri) {
+            return "true".equals(uri.getQueryParameter(PARAM_MERGE));
+        }
+
+        public static long getPruneBeforeDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_PRUNE_BEFORE);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return 0;
+        }
+
         public static long getStartDateFromUri(Uri uri) {
             String dateString = uri.getQueryParameter(COLUMN_DATE);
             if (null != dateString && dateString.length() > 0)
@@ -164,5 +266,24 @@ public class WeatherContract {
             else
                 return 0;
         }
+
+        public static long getAfterDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_AFTER_DATE);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return 0;
+        }
+
+        /*
+            Returns the limit for a LIMIT clause, or null when there isn't one.
+         */
+        public static String getLimitFromUri(Uri uri) {
+            String limitString = uri.getQueryParameter(PARAM_LIMIT);
+            if (null != limitString && limitString.length() > 0)
+                return Integer.toString(Integer.parseInt(limitString));
+            else
+                return null;
+        }
     }
 }
@@ -15,9 +15,13 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.util.Log;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
@@ -26,16 +30,94 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
  * Manages a local database for weather data.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
+    private static final String LOG_TAG = WeatherDbHelper.class.getSimpleName();
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 3;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Every weather lookup the app makes starts from a location, so the rows are indexed by
+    // location first, then by date.  That serves the "this location from this date on" queries
+    // in date order straight off the index.  The UNIQUE (date, location_id) constraint's own index
+    // only helps when the date is known, such as when pruning old days.
+    static final String INDEX_WEATHER_LOCATION_DATE = "weather_location_date";
+
+    private static final String SQL_CREATE_WEATHER_LOCATION_DATE_INDEX =
+            "CREATE INDEX " + INDEX_WEATHER_LOCATION_DATE + " ON " + WeatherEntry.TABLE_NAME +
+                    " (" + WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ");";
+
+    // Page cache for the connection the provider writes through, in KiB.  The whole database is
+    // well under this even with weeks of history for a couple dozen locations.
+    private static final int CACHE_SIZE_KB = 2 * 1024;
+
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
     }
 
+    /*
+        The sync adapter writes while the forecast list, the widgets and Muzei read.  With the
+        default rollback journal those readers wait for the sync's transaction to finish; in
+        write-ahead logging mode they read the last committed data instead.
+     */
+    @Override
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public void onConfigure(SQLiteDatabase db) {
+        configureConnection(db, db.enableWriteAheadLogging());
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        // onConfigure only exists from Jelly Bean on.  Honeycomb has WAL, but it can only be
+        // turned on once the database is open.
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            boolean writeAheadLogging = false;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB && !db.isReadOnly()) {
+                writeAheadLogging = enableWriteAheadLogging(db);
+            }
+            configureConnection(db, writeAheadLogging);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static boolean enableWriteAheadLogging(SQLiteDatabase db) {
+        return db.enableWriteAheadLogging();
+    }
+
+    /*
+        These pragmas only reach the primary connection, which is the one every write goes
+        through; the framework configures the pooled read connections itself.
+     */
+    private static void configureConnection(SQLiteDatabase db, boolean writeAheadLogging) {
+        if (db.isReadOnly()) {
+            return;
+        }
+        db.execSQL("PRAGMA cache_size = -" + CACHE_SIZE_KB);
+        if (writeAheadLogging) {
+            // In WAL mode NORMAL is still safe from corruption; a crash can only lose the last
+            // transactions, which the next sync fetches again anyway.
+            db.execSQL("PRAGMA synchronous = NORMAL");
+        }
+    }
+
+    /**
+     * Copies what it can from the write-ahead log back into the database, without waiting on
+     * readers.  The sync adapter asks for this after each sync, so the log doesn't sit there
+     * growing until SQLite's automatic checkpoint gets around to it.
+     */
+    static void checkpoint(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null);
+        try {
+            if (cursor.moveToFirst()) {
+                // busy, pages in the log, pages checkpointed
+                Log.d(LOG_TAG, "Checkpoint: " + cursor.getInt(2) + " of " + cursor.getInt(1) +
+                        " log pages copied");
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
         // Create a table to hold locations.  A location consists of the string supplied in the
@@ -81,18 +163,25 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        if (oldVersion < 2) {
+            // This database is only a cache for online data, and there's nothing in the first
+            // version worth carrying over, so discard the data and start over.
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+
+        // From here on, each version's changes are applied in turn, keeping the data.
+        if (oldVersion < 3) {
+            sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+        }
     }
 }
@@ -0,0 +1,368 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Merges incoming forecast rows into the weather table.
+ *
+ * A day that isn't stored yet is inserted.  A day that is gets an UPDATE of just the columns
+ * whose values changed, and is left alone if none did, so a stored day keeps its _ID for as long
+ * as it's in the table.  Plain inserts go through the table's ON CONFLICT REPLACE instead, which
+ * deletes and re-inserts every row, changed or not.
+ *
+ * A {@link ForecastSeries} is merged the same way, only without going through ContentValues:
+ * the stored days are read into a series too, compared column by column, and the incoming days'
+ * primitives are bound straight into compiled statements.  There's an UPDATE statement for each
+ * set of changed columns that comes up, compiled the first time it does.
+ *
+ * Like {@link WeatherBulkInserter}, a merger is good for one batch inside a transaction the caller
+ * owns, and must be closed before that ends.
+ */
+class WeatherMerger {
+
+    private static final String LOG_TAG = WeatherMerger.class.getSimpleName();
+
+    static final String sLocationAndDateRangeSelection =
+            WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherEntry.COLUMN_DATE + " >= ? AND " +
+                    WeatherEntry.COLUMN_DATE + " <= ? ";
+
+    static final String sBeforeDateSelection = WeatherEntry.COLUMN_DATE + " < ? ";
+
+    static final String sIdSelection = WeatherEntry._ID + " = ? ";
+
+    private final SQLiteDatabase mDb;
+    private final WeatherBulkInserter mInserter;
+
+    // Compiled on first use by the ForecastSeries merge.
+    private SQLiteStatement mInsertDay;
+    // By the mask of the columns they set.
+    private final SparseArray<SQLiteStatement> mUpdateDays = new SparseArray<SQLiteStatement>();
+
+    WeatherMerger(SQLiteDatabase db) {
+        mDb = db;
+        mInserter = new WeatherBulkInserter(db, WeatherEntry.TABLE_NAME);
+    }
+
+    /**
+     * @param rowIds if not null, receives the _ID each value ended up in, or -1.
+     * @param changedDates receives the date of every row inserted or updated.
+     * @return the number of rows inserted or updated.
+     */
+    int merge(ContentValues[] values, long[] rowIds, Set<Long> changedDates) {
+        // A sync brings one location at a time, so this is almost always a single group.
+        Map<Long, List<Integer>> byLocation = new HashMap<Long, List<Integer>>();
+        for (int i = 0; i < values.length; i++) {
+            Long locationId = values[i].getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+            List<Integer> indices = byLocation.get(locationId);
+            if (indices == null) {
+                indices = new ArrayList<Integer>();
+                byLocation.put(locationId, indices);
+            }
+            indices.add(i);
+        }
+
+        int changed = 0;
+        for (Map.Entry<Long, List<Integer>> location : byLocation.entrySet()) {
+            changed += mergeLocation(location.getKey(), location.getValue(), values, rowIds,
+                    changedDates);
+        }
+        return changed;
+    }
+
+    /**
+     * Merges every day of {@code forecast} into the forecast stored for {@code locationId}.
+     * The provider only takes a series through {@link android.content.ContentProvider#call},
+     * so this never runs before Honeycomb.
+     *
+     * @param changedDates receives the date of every row inserted or updated.
+     * @return the number of rows inserted or updated.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    int merge(long locationId, ForecastSeries forecast, Set<Long> changedDates) {
+        int count = forecast.size();
+        if (count == 0) {
+            return 0;
+        }
+        long minDate = Long.MAX_VALUE;
+        long maxDate = Long.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            long date = WeatherContract.normalizeDate(forecast.getDate(i));
+            minDate = Math.min(minDate, date);
+            maxDate = Math.max(maxDate, date);
+        }
+
+        ForecastSeries stored;
+        Cursor cursor = mDb.query(WeatherEntry.TABLE_NAME, ForecastSeries.WEATHER_COLUMNS,
+                sLocationAndDateRangeSelection,
+                new String[]{Long.toString(locationId), Long.toString(minDate),
+                        Long.toString(maxDate)},
+                null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            stored = ForecastSeries.fromCursor(cursor);
+        } finally {
+            cursor.close();
+        }
+
+        int changed = 0;
+        for (int i = 0; i < count; i++) {
+            long date = WeatherContract.normalizeDate(forecast.getDate(i));
+            int storedDay = stored.indexOfDate(date);
+            if (storedDay == -1) {
+                if (insertDay(locationId, date, forecast, i)) {
+                    changed++;
+                    changedDates.add(date);
+                }
+            } else {
+                int columns = forecast.getChangedWeatherColumns(i, stored, storedDay);
+                if (columns != 0) {
+                    updateDay(stored.getId(storedDay), forecast, i, columns);
+                    changed++;
+                    changedDates.add(date);
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Deletes every day before {@code date}.
+     *
+     * @param changedDates receives the dates deleted.
+     * @return the number of rows deleted.
+     */
+    int prune(long date, Set<Long> changedDates) {
+        String[] selectionArgs = new String[]{Long.toString(date)};
+        Cursor pruned = mDb.query(true, WeatherEntry.TABLE_NAME,
+                new String[]{WeatherEntry.COLUMN_DATE}, sBeforeDateSelection, selectionArgs,
+                null, null, null, null);
+        try {
+            while (pruned.moveToNext()) {
+                changedDates.add(pruned.getLong(0));
+            }
+        } finally {
+            pruned.close();
+        }
+        return mDb.delete(WeatherEntry.TABLE_NAME, sBeforeDateSelection, selectionArgs);
+    }
+
+    void close() {
+        mInserter.close();
+        if (mInsertDay != null) {
+            mInsertDay.close();
+            mInsertDay = null;
+        }
+        for (int i = 0; i < mUpdateDays.size(); i++) {
+            mUpdateDays.valueAt(i).close();
+        }
+        mUpdateDays.clear();
+    }
+
+    private boolean insertDay(long locationId, long date, ForecastSeries forecast, int day) {
+        if (mInsertDay == null) {
+            StringBuilder sql = new StringBuilder();
+            sql.append("INSERT INTO ").append(WeatherEntry.TABLE_NAME).append(" (")
+                    .append(WeatherEntry.COLUMN_LOC_KEY).append(',')
+                    .append(WeatherEntry.COLUMN_DATE);
+            for (String column : ForecastSeries.WEATHER_DATA_COLUMNS) {
+                sql.append(',').append(column);
+            }
+            sql.append(") VALUES (?,?");
+            for (int i = 0; i < ForecastSeries.WEATHER_DATA_COLUMNS.length; i++) {
+                sql.append(",?");
+            }
+            sql.append(')');
+            mInsertDay = mDb.compileStatement(sql.toString());
+        }
+        mInsertDay.bindLong(1, locationId);
+        mInsertDay.bindLong(2, date);
+        forecast.bindWeather(day, mInsertDay, 3);
+        try {
+            mInsertDay.executeInsert();
+            return true;
+        } catch (SQLException e) {
+            // Same as the ContentValues path: a day that breaks a constraint is skipped.
+            Log.e(LOG_TAG, "Error inserting day " + date + " for location " + locationId, e);
+            return false;
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void updateDay(long rowId, ForecastSeries forecast, int day, int columns) {
+        SQLiteStatement updateDay = mUpdateDays.get(columns);
+        if (updateDay == null) {
+            // Sets just the changed columns, like the ContentValues path.
+            StringBuilder sql = new StringBuilder();
+            sql.append("UPDATE ").append(WeatherEntry.TABLE_NAME).append(" SET ");
+            boolean first = true;
+            for (int i = 0; i < ForecastSeries.WEATHER_DATA_COLUMNS.length; i++) {
+                if ((columns & 1 << i) == 0) {
+                    continue;
+                }
+                if (!first) {
+                    sql.append(',');
+                }
+                first = false;
+                sql.append(ForecastSeries.WEATHER_DATA_COLUMNS[i]).append(" = ?");
+            }
+            sql.append(" WHERE ").append(sIdSelection);
+            updateDay = mDb.compileStatement(sql.toString());
+            mUpdateDays.put(columns, updateDay);
+        }
+        int idIndex = forecast.bindWeather(day, updateDay, 1, columns);
+        updateDay.bindLong(idIndex, rowId);
+        updateDay.executeUpdateDelete();
+    }
+
+    private int mergeLocation(Long locationId, List<Integer> indices, ContentValues[] values,
+            long[] rowIds, Set<Long> changedDates) {
+        int count = indices.size();
+        long[] dates = new long[count];
+        long minDate = Long.MAX_VALUE;
+        long maxDate = Long.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            Long date = values[indices.get(i)].getAsLong(WeatherEntry.COLUMN_DATE);
+            dates[i] = date == null ? 0 : WeatherContract.normalizeDate(date);
+            minDate = Math.min(minDate, dates[i]);
+            maxDate = Math.max(maxDate, dates[i]);
+        }
+
+        // Without a location there's nothing stored to merge with; the inserts will fail on
+        // their own, the same way plain inserts do.
+        Map<Long, Integer> storedPositions = new HashMap<Long, Integer>();
+        Cursor stored = null;
+        if (locationId != null) {
+            stored = mDb.query(WeatherEntry.TABLE_NAME, null, sLocationAndDateRangeSelection,
+                    new String[]{Long.toString(locationId), Long.toString(minDate),
+                            Long.toString(maxDate)},
+                    null, null, null);
+        }
+
+        try {
+            int idIndex = -1;
+            if (stored != null) {
+                idIndex = stored.getColumnIndex(WeatherEntry._ID);
+                int dateIndex = stored.getColumnIndex(WeatherEntry.COLUMN_DATE);
+                while (stored.moveToNext()) {
+                    storedPositions.put(stored.getLong(dateIndex), stored.getPosition());
+                }
+            }
+
+            int changed = 0;
+            for (int i = 0; i < count; i++) {
+                int valuesIndex = indices.get(i);
+                ContentValues incoming = values[valuesIndex];
+                long rowId;
+                Integer position = storedPositions.get(dates[i]);
+                if (position == null) {
+                    rowId = mInserter.insert(incoming);
+                    if (rowId != -1) {
+                        changed++;
+                        changedDates.add(dates[i]);
+                    }
+                } else {
+                    stored.moveToPosition(position);
+                    rowId = stored.getLong(idIndex);
+                    ContentValues update = getChangedColumns(stored, incoming);
+                    if (update != null) {
+                        mDb.update(WeatherEntry.TABLE_NAME, update, sIdSelection,
+                                new String[]{Long.toString(rowId)});
+                        changed++;
+                        changedDates.add(dates[i]);
+                    }
+                }
+                if (rowIds != null) {
+                    rowIds[valuesIndex] = rowId;
+                }
+            }
+            return changed;
+        } finally {
+            if (stored != null) {
+                stored.close();
+            }
+        }
+    }
+
+    /**
+     * @return the columns of {@code incoming} whose values differ from the stored row's, or null
+     * if none do.
+     */
+    private static ContentValues getChangedColumns(Cursor stored, ContentValues incoming) {
+        List<String> unchanged = new ArrayList<String>();
+        boolean anyChanged = false;
+        for (Map.Entry<String, Object> entry : incoming.valueSet()) {
+            String column = entry.getKey();
+            // These are what matched the row in the first place.
+            if (column.equals(WeatherEntry.COLUMN_DATE) ||
+                    column.equals(WeatherEntry.COLUMN_LOC_KEY)) {
+                unchanged.add(column);
+                continue;
+            }
+            int index = stored.getColumnIndex(column);
+            if (index != -1 && isSameValue(stored, index, entry.getValue())) {
+                unchanged.add(column);
+            } else {
+                anyChanged = true;
+            }
+        }
+        if (!anyChanged) {
+            return null;
+        }
+
+        ContentValues update = new ContentValues(incoming);
+        for (String column : unchanged) {
+            update.remove(column);
+        }
+        return update;
+    }
+
+    private static boolean isSameValue(Cursor stored, int index, Object value) {
+        if (stored.isNull(index)) {
+            return value == null;
+        } else if (value == null) {
+            return false;
+        } else if (value instanceof Number) {
+            // The numeric columns are REAL, except the ids, which are small enough that a double
+            // holds them exactly.
+            return stored.getDouble(index) == ((Number) value).doubleValue();
+        } else if (value instanceof Boolean) {
+            return stored.getLong(index) == ((Boolean) value ? 1 : 0);
+        } else if (value instanceof byte[]) {
+            return Arrays.equals(stored.getBlob(index), (byte[]) value);
+        } else {
+            return value.toString().equals(stored.getString(index));
+        }
+    }
+}
@@ -17,12 +17,24 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 public class WeatherProvider extends ContentProvider {
 
@@ -30,12 +42,24 @@ public class WeatherProvider extends ContentProvider {
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
 
+    // Set on the thread running applyBatch, whose operations hold their change notifications
+    // until the whole batch has committed.
+    private final ThreadLocal<BatchChanges> mBatchChanges = new ThreadLocal<BatchChanges>();
+
+    private static class BatchChanges {
+        boolean changed;
+        final SortedSet<Long> dates = new TreeSet<Long>();
+        // Shared by the batch's merge URI inserts, so its statements are compiled once a batch
+        // rather than once a row.
+        WeatherMerger merger;
+    }
+
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -52,18 +76,24 @@ public class WeatherProvider extends ContentProvider {
     }
 
     //location.location_setting = ?
-    private static final String sLocationSettingSelection =
+    static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
+    //location.location_setting = ? AND date > ?
+    static final String sLocationSettingAfterDateSelection =
+            WeatherContract.LocationEntry.TABLE_NAME+
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " > ? ";
+
     //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
@@ -71,11 +101,16 @@ public class WeatherProvider extends ContentProvider {
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+        // A page starts after the last day of the one before it, which is past the start date.
+        long afterDate = WeatherContract.WeatherEntry.getAfterDateFromUri(uri);
 
         String[] selectionArgs;
         String selection;
 
-        if (startDate == 0) {
+        if (afterDate != 0 && afterDate >= startDate) {
+            selectionArgs = new String[]{locationSetting, Long.toString(afterDate)};
+            selection = sLocationSettingAfterDateSelection;
+        } else if (startDate == 0) {
             selection = sLocationSettingSelection;
             selectionArgs = new String[]{locationSetting};
         } else {
@@ -89,7 +124,8 @@ public class WeatherProvider extends ContentProvider {
                 selectionArgs,
                 null,
                 null,
-                sortOrder
+                sortOrder,
+                WeatherContract.WeatherEntry.getLimitFromUri(uri)
         );
     }
 
@@ -232,6 +268,9 @@ public class WeatherProvider extends ContentProvider {
 
         switch (match) {
             case WEATHER: {
+                if (WeatherContract.WeatherEntry.isMergeUri(uri)) {
+                    return mergeWeather(db, uri, values);
+                }
                 normalizeDate(values);
                 long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
                 if ( _id > 0 )
@@ -251,7 +290,7 @@ public class WeatherProvider extends ContentProvider {
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri, null);
         return returnUri;
     }
 
@@ -276,7 +315,7 @@ public class WeatherProvider extends ContentProvider {
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri, null);
         }
         return rowsDeleted;
     }
@@ -310,7 +349,7 @@ public class WeatherProvider extends ContentProvider {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri, null);
         }
         return rowsUpdated;
     }
@@ -321,27 +360,232 @@ public class WeatherProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
+                if (WeatherContract.WeatherEntry.isMergeUri(uri)) {
+                    return bulkMergeWeather(db, uri, values);
+                }
                 db.beginTransaction();
                 int returnCount = 0;
+                WeatherBulkInserter inserter =
+                        new WeatherBulkInserter(db, WeatherContract.WeatherEntry.TABLE_NAME);
                 try {
                     for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+                        long _id = inserter.insert(value);
                         if (_id != -1) {
                             returnCount++;
                         }
                     }
                     db.setTransactionSuccessful();
                 } finally {
+                    inserter.close();
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                notifyChange(uri, null);
                 return returnCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    private Uri mergeWeather(SQLiteDatabase db, Uri uri, ContentValues values) {
+        SortedSet<Long> changedDates = new TreeSet<Long>();
+        long[] rowIds = new long[1];
+        BatchChanges batchChanges = mBatchChanges.get();
+        if (batchChanges != null) {
+            if (batchChanges.merger == null) {
+                batchChanges.merger = new WeatherMerger(db);
+            }
+            batchChanges.merger.merge(new ContentValues[]{values}, rowIds, changedDates);
+        } else {
+            WeatherMerger merger = new WeatherMerger(db);
+            try {
+                merger.merge(new ContentValues[]{values}, rowIds, changedDates);
+            } finally {
+                merger.close();
+            }
+        }
+        if (rowIds[0] == -1) {
+            throw new android.database.SQLException("Failed to insert row into " + uri);
+        }
+        if (!changedDates.isEmpty()) {
+            notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, changedDates);
+        }
+        return WeatherContract.WeatherEntry.buildWeatherUri(rowIds[0]);
+    }
+
+    private int bulkMergeWeather(SQLiteDatabase db, Uri uri, ContentValues[] values) {
+        SortedSet<Long> changedDates = new TreeSet<Long>();
+        long pruneBeforeDate = WeatherContract.WeatherEntry.getPruneBeforeDateFromUri(uri);
+        int returnCount;
+        db.beginTransaction();
+        WeatherMerger merger = new WeatherMerger(db);
+        try {
+            returnCount = merger.merge(values, null, changedDates);
+            if (pruneBeforeDate > 0) {
+                returnCount += merger.prune(pruneBeforeDate, changedDates);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            merger.close();
+            db.endTransaction();
+        }
+        if (returnCount > 0) {
+            notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, changedDates);
+        }
+        return returnCount;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private int mergeForecast(SQLiteDatabase db, long locationId, ForecastSeries forecast,
+            long pruneBeforeDate) {
+        SortedSet<Long> changedDates = new TreeSet<Long>();
+        int returnCount;
+        db.beginTransaction();
+        WeatherMerger merger = new WeatherMerger(db);
+        try {
+            returnCount = merger.merge(locationId, forecast, changedDates);
+            if (pruneBeforeDate > 0) {
+                returnCount += merger.prune(pruneBeforeDate, changedDates);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            merger.close();
+            db.endTransaction();
+        }
+        if (returnCount > 0) {
+            notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, changedDates);
+        }
+        return returnCount;
+    }
+
+    /**
+     * Merges the forecasts of several locations, see {@link WeatherContract#METHOD_MERGE_FORECASTS},
+     * with one merger and in one transaction, so each location's stored days are read once.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private int mergeForecasts(SQLiteDatabase db, List<Bundle> forecasts, long pruneBeforeDate) {
+        SortedSet<Long> changedDates = new TreeSet<Long>();
+        boolean insertedLocation = false;
+        int returnCount = 0;
+        db.beginTransaction();
+        WeatherMerger merger = new WeatherMerger(db);
+        try {
+            for (Bundle extras : forecasts) {
+                ForecastSeries forecast = ForecastSeries.fromBundle(extras);
+                if (forecast == null) {
+                    throw new IllegalArgumentException("No forecast to merge");
+                }
+                long locationId;
+                if (extras.containsKey(WeatherContract.EXTRA_LOCATION_ID)) {
+                    locationId = extras.getLong(WeatherContract.EXTRA_LOCATION_ID);
+                } else {
+                    ContentValues locationValues =
+                            extras.getParcelable(WeatherContract.EXTRA_LOCATION_VALUES);
+                    if (locationValues == null) {
+                        throw new IllegalArgumentException("No location for the forecast");
+                    }
+                    locationId = db.insert(
+                            WeatherContract.LocationEntry.TABLE_NAME, null, locationValues);
+                    if (locationId == -1) {
+                        throw new android.database.SQLException("Failed to insert location");
+                    }
+                    insertedLocation = true;
+                }
+                returnCount += merger.merge(locationId, forecast, changedDates);
+            }
+            if (pruneBeforeDate > 0) {
+                returnCount += merger.prune(pruneBeforeDate, changedDates);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            merger.close();
+            db.endTransaction();
+        }
+        if (insertedLocation) {
+            notifyChange(WeatherContract.BASE_CONTENT_URI, changedDates);
+        } else if (returnCount > 0) {
+            notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, changedDates);
+        }
+        return returnCount;
+    }
+
+    /**
+     * Applies the operations in a single transaction, so a batch either lands whole or not at
+     * all, and sends one change notification for all of it rather than one per operation.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        ContentProviderResult[] results;
+        BatchChanges changes = new BatchChanges();
+        db.beginTransaction();
+        mBatchChanges.set(changes);
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            mBatchChanges.remove();
+            if (changes.merger != null) {
+                changes.merger.close();
+            }
+            db.endTransaction();
+        }
+        if (changes.changed) {
+            notifyChange(WeatherContract.BASE_CONTENT_URI, changes.dates);
+        }
+        return results;
+    }
+
+    @Override
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.METHOD_CHECKPOINT.equals(method)) {
+            WeatherDbHelper.checkpoint(mOpenHelper.getWritableDatabase());
+            return null;
+        } else if (WeatherContract.METHOD_MERGE_FORECAST.equals(method)) {
+            ForecastSeries forecast = ForecastSeries.fromBundle(extras);
+            if (forecast == null || !extras.containsKey(WeatherContract.EXTRA_LOCATION_ID)) {
+                throw new IllegalArgumentException("No forecast to merge");
+            }
+            int changed = mergeForecast(mOpenHelper.getWritableDatabase(),
+                    extras.getLong(WeatherContract.EXTRA_LOCATION_ID), forecast,
+                    extras.getLong(WeatherContract.EXTRA_PRUNE_BEFORE, 0));
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.EXTRA_CHANGED_COUNT, changed);
+            return result;
+        } else if (WeatherContract.METHOD_MERGE_FORECASTS.equals(method)) {
+            ArrayList<Bundle> forecasts = extras == null ? null
+                    : extras.<Bundle>getParcelableArrayList(WeatherContract.EXTRA_FORECASTS);
+            if (forecasts == null) {
+                throw new IllegalArgumentException("No forecasts to merge");
+            }
+            int changed = mergeForecasts(mOpenHelper.getWritableDatabase(), forecasts,
+                    extras.getLong(WeatherContract.EXTRA_PRUNE_BEFORE, 0));
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.EXTRA_CHANGED_COUNT, changed);
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * @param changedDates the weather dates the change touched, if known.  They go out with the
+     *                     notification, see {@link WeatherContract#getChangedDatesFromUri}.
+     */
+    private void notifyChange(Uri uri, Set<Long> changedDates) {
+        if (changedDates == null) {
+            changedDates = Collections.emptySet();
+        }
+        BatchChanges batchChanges = mBatchChanges.get();
+        if (batchChanges != null) {
+            batchChanges.changed = true;
+            batchChanges.dates.addAll(changedDates);
+        } else {
+            getContext().getContentResolver().notifyChange(
+                    WeatherContract.buildChangeUri(uri, changedDates), null);
+        }
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
@@ -21,7 +21,6 @@ import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.Bundle;
 import android.support.v4.app.NotificationCompat;
 import android.util.Log;
@@ -29,6 +28,7 @@ import android.widget.Toast;
 
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.WeatherArtCache;
 import com.google.android.gms.gcm.GcmListenerService;
 
 import org.json.JSONException;
@@ -44,6 +44,12 @@ public class MyGcmListenerService extends GcmListenerService {
 
     public static final int NOTIFICATION_ID = 1;
 
+    // Alerts are about storms, and show the storm art.
+    private static final int ALERT_WEATHER_ID = 200;
+
+    // How long an alert waits for its art before it goes out without it.
+    private static final long LARGE_ICON_TIMEOUT = 3 * 1000;
+
     /**
      * Called when message is received.
      *
@@ -92,10 +98,17 @@ public class MyGcmListenerService extends GcmListenerService {
                 PendingIntent.getActivity(this, 0, new Intent(this, MainActivity.class), 0);
 
         // Notifications using both a large and a small icon (which yours should!) need the large
-        // icon as a bitmap. So we need to create that here from the resource ID, and pass the
-        // object along in our notification builder. Generally, you want to use the app icon as the
-        // small icon, so that users understand what app is triggering this notification.
-        Bitmap largeIcon = BitmapFactory.decodeResource(this.getResources(), R.drawable.art_storm);
+        // icon as a bitmap. The art cache keeps one at the right size, and if it doesn't have it
+        // yet, the alert waits a moment for it and then goes out without it; it's never posted
+        // again, which would bring it back if the user had dismissed it. Generally, you want to
+        // use the app icon as the small icon, so that users understand what app is triggering
+        // this notification.
+        int[] largeIconSize = WeatherArtCache.getLargeIconSize(getResources());
+        int largeIconWidth = largeIconSize[0];
+        int largeIconHeight = largeIconSize[1];
+        WeatherArtCache artCache = WeatherArtCache.getInstance(this);
+        Bitmap largeIcon = artCache.get(ALERT_WEATHER_ID, largeIconWidth, largeIconHeight,
+                LARGE_ICON_TIMEOUT);
         NotificationCompat.Builder mBuilder =
                 new NotificationCompat.Builder(this)
                         .setSmallIcon(R.drawable.art_clear)
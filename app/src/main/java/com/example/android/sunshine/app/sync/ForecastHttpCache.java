@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Remembers the HTTP validators (ETag and Last-Modified) and a hash of the body of the last
+ * forecast response we stored for each request URI, so that the next sync can ask the server
+ * whether anything changed, and can tell when a full response is the same as the last one.
+ *
+ * Entries live in their own SharedPreferences file.  They are keyed by a hash of the URI, which
+ * keeps the keys short and keeps the API key out of the file.
+ */
+class ForecastHttpCache {
+    private static final String LOG_TAG = ForecastHttpCache.class.getSimpleName();
+
+    private static final String PREFS_NAME = "forecast_http_cache";
+
+    private static final String SUFFIX_ETAG = ".etag";
+    private static final String SUFFIX_LAST_MODIFIED = ".last_modified";
+    private static final String SUFFIX_PAYLOAD_HASH = ".payload_hash";
+
+    static final String PAYLOAD_DIGEST_ALGORITHM = "SHA-1";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * What we know about the last response for one URI.  Any of the fields may be null.
+     */
+    static class Entry {
+        final String etag;
+        final String lastModified;
+        final String payloadHash;
+
+        Entry(String etag, String lastModified, String payloadHash) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.payloadHash = payloadHash;
+        }
+    }
+
+    private final SharedPreferences mPrefs;
+
+    ForecastHttpCache(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return the entry for {@code uri}, or null if we've never stored a response for it.
+     */
+    Entry get(String uri) {
+        String key = keyFor(uri);
+        String payloadHash = mPrefs.getString(key + SUFFIX_PAYLOAD_HASH, null);
+        if (payloadHash == null) {
+            return null;
+        }
+        return new Entry(mPrefs.getString(key + SUFFIX_ETAG, null),
+                mPrefs.getString(key + SUFFIX_LAST_MODIFIED, null),
+                payloadHash);
+    }
+
+    /**
+     * Records the validators and body hash of a response we have just stored.  A null payload
+     * hash forgets the entry, since without it there is nothing to compare the next response to.
+     */
+    void put(String uri, String etag, String lastModified, String payloadHash) {
+        String key = keyFor(uri);
+        if (payloadHash == null) {
+            mPrefs.edit()
+                    .remove(key + SUFFIX_ETAG)
+                    .remove(key + SUFFIX_LAST_MODIFIED)
+                    .remove(key + SUFFIX_PAYLOAD_HASH)
+                    .commit();
+            return;
+        }
+        mPrefs.edit()
+                .putString(key + SUFFIX_ETAG, etag)
+                .putString(key + SUFFIX_LAST_MODIFIED, lastModified)
+                .putString(key + SUFFIX_PAYLOAD_HASH, payloadHash)
+                .commit();
+    }
+
+    /**
+     * Forgets the entries for every URI but {@code uris}, so locations that are no longer
+     * stored, and URIs that have since changed, don't keep their entries forever.
+     */
+    void retainAll(Collection<String> uris) {
+        Set<String> keep = new HashSet<String>(uris.size());
+        for (String uri : uris) {
+            keep.add(keyFor(uri));
+        }
+        SharedPreferences.Editor editor = null;
+        for (String prefKey : mPrefs.getAll().keySet()) {
+            int suffix = prefKey.lastIndexOf('.');
+            if (!keep.contains(suffix == -1 ? prefKey : prefKey.substring(0, suffix))) {
+                if (editor == null) {
+                    editor = mPrefs.edit();
+                }
+                editor.remove(prefKey);
+            }
+        }
+        if (editor != null) {
+            editor.commit();
+        }
+    }
+
+    /**
+     * Turns {@code urlConnection} into a conditional request, if we have validators for it.
+     * Must be called before the connection is connected.
+     */
+    static void addConditionalHeaders(HttpURLConnection urlConnection, Entry entry) {
+        if (entry == null) {
+            return;
+        }
+        if (entry.etag != null) {
+            urlConnection.setRequestProperty("If-None-Match", entry.etag);
+        }
+        if (entry.lastModified != null) {
+            urlConnection.setRequestProperty("If-Modified-Since", entry.lastModified);
+        }
+    }
+
+    /**
+     * @return a digest to hash response bodies with, or null if the platform doesn't have one,
+     * in which case every response counts as changed.
+     */
+    static MessageDigest newPayloadDigest() {
+        try {
+            return MessageDigest.getInstance(PAYLOAD_DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            Log.w(LOG_TAG, "No " + PAYLOAD_DIGEST_ALGORITHM + " digest available", e);
+            return null;
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    private static String keyFor(String uri) {
+        MessageDigest digest = newPayloadDigest();
+        if (digest == null) {
+            return uri;
+        }
+        try {
+            return toHex(digest.digest(uri.getBytes("UTF-8")));
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always there.
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+
+/**
+ * Turns an OpenWeatherMap daily forecast response into the fields of each day.
+ *
+ * There are two ways in: {@link #parse(InputStream, Callback)} pulls tokens straight off the
+ * network stream, so only the day currently being read is held in memory.  {@link #parse(String,
+ * Callback)} is the original tree parser, kept for devices older than Honeycomb, which don't have
+ * {@link JsonReader}.  Both report exactly the same values to the {@link Callback}.
+ */
+class ForecastJsonParser {
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    static final String OWM_CITY = "city";
+    static final String OWM_CITY_NAME = "name";
+    static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    static final String OWM_LATITUDE = "lat";
+    static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    static final String OWM_LIST = "list";
+
+    static final String OWM_PRESSURE = "pressure";
+    static final String OWM_HUMIDITY = "humidity";
+    static final String OWM_WINDSPEED = "speed";
+    static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    static final String OWM_TEMPERATURE = "temp";
+    static final String OWM_MAX = "max";
+    static final String OWM_MIN = "min";
+
+    static final String OWM_WEATHER = "weather";
+    static final String OWM_DESCRIPTION = "main";
+    static final String OWM_WEATHER_ID = "id";
+
+    static final String OWM_MESSAGE_CODE = "cod";
+
+    // The fields readDay has to find in every day, one bit each.
+    private static final int SEEN_PRESSURE = 1;
+    private static final int SEEN_HUMIDITY = 1 << 1;
+    private static final int SEEN_WIND_SPEED = 1 << 2;
+    private static final int SEEN_DEGREES = 1 << 3;
+    private static final int SEEN_MAX_TEMP = 1 << 4;
+    private static final int SEEN_MIN_TEMP = 1 << 5;
+    private static final int SEEN_DESCRIPTION = 1 << 6;
+    private static final int SEEN_WEATHER_ID = 1 << 7;
+    private static final int SEEN_ALL = (1 << 8) - 1;
+
+    /**
+     * Receives the pieces of the forecast as they are parsed.  Days are reported in the order
+     * the server sent them; the city may arrive before or after them.
+     */
+    interface Callback {
+        void onCity(String cityName, double lat, double lon);
+
+        /**
+         * @param dayIndex zero-based position of the day in the "list" array.  The day's date,
+         *                 and which location it's for, are up to the caller.
+         */
+        void onDay(int dayIndex, int weatherId, String description, double maxTemp,
+                double minTemp, double humidity, double pressure, double windSpeed,
+                double degrees);
+    }
+
+    /**
+     * The fields of the day being streamed, until it's complete.
+     */
+    private static class DayFields {
+        int seen;
+        int weatherId;
+        String description;
+        double maxTemp;
+        double minTemp;
+        double humidity;
+        double pressure;
+        double windSpeed;
+        double degrees;
+    }
+
+    private ForecastJsonParser() {
+    }
+
+    /**
+     * Streams the forecast out of {@code in} without ever materializing the response.
+     *
+     * @return the "cod" value of the response, or {@link HttpURLConnection#HTTP_OK} if there
+     * was none.  When it isn't HTTP_OK the callback may not have been called at all.
+     * @throws JSONException if the response isn't a well-formed forecast
+     * @throws IOException if reading from the stream fails
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    static int parse(InputStream in, Callback callback) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            return readForecast(reader, callback);
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            // JsonReader reports unexpected tokens as IllegalStateException, and bad numbers as
+            // NumberFormatException.  To our caller they're all just an invalid response.
+            throw new JSONException(e.getMessage());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static int readForecast(JsonReader reader, Callback callback)
+            throws IOException, JSONException {
+        int messageCode = HttpURLConnection.HTTP_OK;
+        boolean sawCity = false;
+        boolean sawList = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                // OWM sends this as a string on some responses and as a number on others.
+                // nextInt copes with both.
+                messageCode = reader.nextInt();
+            } else if (OWM_CITY.equals(name)) {
+                readCity(reader, callback);
+                sawCity = true;
+            } else if (OWM_LIST.equals(name)) {
+                int dayIndex = 0;
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    readDay(reader, dayIndex++, callback);
+                }
+                reader.endArray();
+                sawList = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (messageCode == HttpURLConnection.HTTP_OK && !(sawCity && sawList)) {
+            throw new JSONException("Forecast response is missing " +
+                    (sawCity ? OWM_LIST : OWM_CITY));
+        }
+        return messageCode;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readCity(JsonReader reader, Callback callback) throws IOException {
+        String cityName = null;
+        double lat = 0;
+        double lon = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        lat = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        lon = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        callback.onCity(cityName, lat, lon);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readDay(JsonReader reader, int dayIndex, Callback callback)
+            throws IOException {
+        DayFields day = new DayFields();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                day.pressure = reader.nextDouble();
+                day.seen |= SEEN_PRESSURE;
+            } else if (OWM_HUMIDITY.equals(name)) {
+                day.humidity = reader.nextInt();
+                day.seen |= SEEN_HUMIDITY;
+            } else if (OWM_WINDSPEED.equals(name)) {
+                day.windSpeed = reader.nextDouble();
+                day.seen |= SEEN_WIND_SPEED;
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                day.degrees = reader.nextDouble();
+                day.seen |= SEEN_DEGREES;
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String tempName = reader.nextName();
+                    if (OWM_MAX.equals(tempName)) {
+                        day.maxTemp = reader.nextDouble();
+                        day.seen |= SEEN_MAX_TEMP;
+                    } else if (OWM_MIN.equals(tempName)) {
+                        day.minTemp = reader.nextDouble();
+                        day.seen |= SEEN_MIN_TEMP;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Description is in a child array called "weather", which is 1 element long.
+                // That element also contains a weather code.
+                reader.beginArray();
+                boolean first = true;
+                while (reader.hasNext()) {
+                    if (first) {
+                        readWeatherCondition(reader, day);
+                        first = false;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (day.seen != SEEN_ALL) {
+            throw new IllegalStateException("Incomplete day in forecast response");
+        }
+        callback.onDay(dayIndex, day.weatherId, day.description, day.maxTemp, day.minTemp,
+                day.humidity, day.pressure, day.windSpeed, day.degrees);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readWeatherCondition(JsonReader reader, DayFields day)
+            throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_DESCRIPTION.equals(name) && reader.peek() != JsonToken.NULL) {
+                day.description = reader.nextString();
+                day.seen |= SEEN_DESCRIPTION;
+            } else if (OWM_WEATHER_ID.equals(name)) {
+                day.weatherId = reader.nextInt();
+                day.seen |= SEEN_WEATHER_ID;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Parses a complete response held in memory.  This is the pre-Honeycomb path.
+     *
+     * @return the "cod" value of the response, or {@link HttpURLConnection#HTTP_OK} if there
+     * was none.
+     * @throws JSONException if the response isn't a well-formed forecast
+     */
+    static int parse(String forecastJsonStr, Callback callback) throws JSONException {
+        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
+        // into an Object hierarchy for us.
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+
+        // do we have an error?
+        if (forecastJson.has(OWM_MESSAGE_CODE)) {
+            int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
+            if (errorCode != HttpURLConnection.HTTP_OK) {
+                return errorCode;
+            }
+        }
+
+        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+
+        JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+        String cityName = cityJson.getString(OWM_CITY_NAME);
+
+        JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+        callback.onCity(cityName,
+                cityCoord.getDouble(OWM_LATITUDE), cityCoord.getDouble(OWM_LONGITUDE));
+
+        for (int i = 0; i < weatherArray.length(); i++) {
+            // Get the JSON object representing the day
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+
+            // Description is in a child array called "weather", which is 1 element long.
+            // That element also contains a weather code.
+            JSONObject weatherObject = dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+
+            // Temperatures are in a child object called "temp".  Try not to name variables
+            // "temp" when working with temperature.  It confuses everybody.
+            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+
+            callback.onDay(i,
+                    weatherObject.getInt(OWM_WEATHER_ID),
+                    weatherObject.getString(OWM_DESCRIPTION),
+                    temperatureObject.getDouble(OWM_MAX),
+                    temperatureObject.getDouble(OWM_MIN),
+                    dayForecast.getInt(OWM_HUMIDITY),
+                    dayForecast.getDouble(OWM_PRESSURE),
+                    dayForecast.getDouble(OWM_WINDSPEED),
+                    dayForecast.getDouble(OWM_WIND_DIRECTION));
+        }
+        return HttpURLConnection.HTTP_OK;
+    }
+
+    /**
+     * Reads the whole response into a String for {@link #parse(String, Callback)}.
+     *
+     * @return the response, or null if it was empty
+     */
+    static String readFully(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            StringBuilder buffer = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
+                // But it does make debugging a *lot* easier if you print out the completed
+                // buffer for debugging.
+                buffer.append(line).append('\n');
+            }
+            return buffer.length() == 0 ? null : buffer.toString();
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -2,68 +2,74 @@ package com.example.android.sunshine.app.sync;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
-import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
+import android.content.PeriodicSync;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
 import android.content.res.Resources;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.RemoteException;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
-import android.support.annotation.NonNull;
-import android.support.annotation.Nullable;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
 import android.text.format.Time;
 import android.util.Log;
 
-import com.bumptech.glide.Glide;
 import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.WeatherArtCache;
+import com.example.android.sunshine.app.data.ForecastChangeBus;
+import com.example.android.sunshine.app.data.ForecastSeries;
+import com.example.android.sunshine.app.data.TodaySnapshot;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.PendingResult;
-import com.google.android.gms.common.api.ResultCallback;
-import com.google.android.gms.wearable.DataApi;
-import com.google.android.gms.wearable.PutDataMapRequest;
-import com.google.android.gms.wearable.PutDataRequest;
-import com.google.android.gms.wearable.Wearable;
-
-import org.json.JSONArray;
+
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.util.Vector;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 
-public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
-   implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener{
+public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
     public static final String ACTION_DATA_UPDATED =
             "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
@@ -73,35 +79,18 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL/3;
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
-
-
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
-
-    @Override
-    public void onConnected(@Nullable Bundle bundle) {
-
-    }
-
-    @Override
-    public void onConnectionSuspended(int i) {
-
-    }
-
-    @Override
-    public void onConnectionFailed(@NonNull ConnectionResult connectionResult) {
-
-    }
+    // How long a sync waits for the new forecast's art before updating everything without it.
+    private static final long ART_PREFETCH_TIMEOUT = 30 * 1000;
+    // How long the notification waits for art the prefetch didn't get to.
+    private static final long LARGE_ICON_TIMEOUT = 3 * 1000;
+    // How long each consumer waits for a forecast change to settle before refreshing.  The
+    // widgets and the notification go through the launcher and the status bar, and Muzei reloads
+    // the whole wallpaper, so they wait the longest.
+    private static final long WATCH_DEBOUNCE = 0;
+    private static final long ART_DEBOUNCE = 0;
+    private static final long WIDGETS_DEBOUNCE = 2 * 1000;
+    private static final long NOTIFICATION_DEBOUNCE = 2 * 1000;
+    private static final long MUZEI_DEBOUNCE = 10 * 1000;
 
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID,  LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
@@ -113,58 +102,136 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
     public static final int LOCATION_STATUS_UNKNOWN = 3;
     public static final int LOCATION_STATUS_INVALID = 4;
 
-    private static GoogleApiClient mGoogleApiClient;
+    // Syncs on one adapter never overlap, so they can all share the client and its read buffer.
+    private final SyncHttpClient mHttpClient = new SyncHttpClient();
+    private final ForecastHttpCache mHttpCache;
 
-    public SunshineSyncAdapter(Context context, boolean autoInitialize) {
-        super(context, autoInitialize);
-    }
+    // Set in the extras of a sync that should refresh every stored location, not just the
+    // preferred one.  The periodic sync is one; syncs for a settings change aren't.
+    public static final String SYNC_EXTRAS_ALL_LOCATIONS = "sync_all_locations";
 
-    private void notifyWatch(){
+    // How many forecasts a sync of all locations fetches at once.  They all come from the one
+    // host, so this is also how many connections we have open to it.
+    private static final int MAX_PARALLEL_FETCHES = 2;
 
-        String location = Utility.getPreferredLocation(getContext());
-        Uri weather = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(location, System.currentTimeMillis());
-        Cursor cursor = getContext().getContentResolver().query(weather,NOTIFY_WEATHER_PROJECTION, null, null, null);
-      
-        if (cursor!=null && cursor.moveToNext() ) {
+    // Clients left over from earlier fetches, so their buffers get reused across syncs.
+    private final BlockingQueue<SyncHttpClient> mIdleHttpClients =
+            new LinkedBlockingQueue<SyncHttpClient>();
 
+    public SunshineSyncAdapter(Context context, boolean autoInitialize) {
+        super(context, autoInitialize);
+        mHttpCache = new ForecastHttpCache(context);
+        subscribeToForecastChanges(ForecastChangeBus.getInstance(context));
+    }
 
-            
-            double lowTemp = cursor.getDouble(INDEX_MIN_TEMP);
-			String formatLow = Utility.formatTemperature(getContext(), lowTemp);
-            Log.d(LOG_TAG, "Low "+formatLow);
+    /**
+     * Hooks the watch, the art, the widgets, Muzei and the notification up to the forecast
+     * changes this adapter posts.  There's only one adapter in the process, so this happens once.
+     */
+    private void subscribeToForecastChanges(ForecastChangeBus bus) {
+        // Handing off to the watch and to Muzei is quick, so they run on the bus's own thread.
+        Executor direct = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        // The art is prefetched on the same thread the widgets and the notification are updated
+        // on, and with no debounce, so it's always there by the time they go looking for it.
+        Executor ordered = Executors.newSingleThreadExecutor();
+
+        bus.subscribe(new ForecastChangeBus.Subscriber() {
+            @Override
+            public void onForecastChanged(ForecastChangeBus.Change change) {
+                if (affectsToday(change)) {
+                    notifyWatch(TodaySnapshot.get(getContext()));
+                    Log.d(LOG_TAG, "notifying watch");
+                }
+            }
+        }, direct, WATCH_DEBOUNCE);
+        bus.subscribe(new ForecastChangeBus.Subscriber() {
+            @Override
+            public void onForecastChanged(ForecastChangeBus.Change change) {
+                if (affectsToday(change)) {
+                    prefetchArt();
+                }
+            }
+        }, ordered, ART_DEBOUNCE);
+        bus.subscribe(new ForecastChangeBus.Subscriber() {
+            @Override
+            public void onForecastChanged(ForecastChangeBus.Change change) {
+                if (affectsToday(change)) {
+                    updateWidgets();
+                }
+            }
+        }, ordered, WIDGETS_DEBOUNCE);
+        bus.subscribe(new ForecastChangeBus.Subscriber() {
+            @Override
+            public void onForecastChanged(ForecastChangeBus.Change change) {
+                if (affectsToday(change)) {
+                    notifyWeather(TodaySnapshot.get(getContext()));
+                }
+            }
+        }, ordered, NOTIFICATION_DEBOUNCE);
+        bus.subscribe(new ForecastChangeBus.Subscriber() {
+            @Override
+            public void onForecastChanged(ForecastChangeBus.Change change) {
+                if (affectsToday(change)) {
+                    updateMuzei();
+                }
+            }
+        }, direct, MUZEI_DEBOUNCE);
+    }
 
-			double highTemp = cursor.getDouble(INDEX_MAX_TEMP);
-			String formatHigh = Utility.formatTemperature(getContext(), highTemp);
-            Log.d(LOG_TAG, "High "+formatHigh);
-			
-            String desc = cursor.getString(INDEX_SHORT_DESC);
-            int weatherId = cursor.getInt(INDEX_WEATHER_ID);
+    /**
+     * @return whether the change could be to the forecast the watch, the widgets, Muzei and the
+     * notification show, which is the preferred location's.
+     */
+    private boolean affectsToday(ForecastChangeBus.Change change) {
+        return change.affectsLocation(Utility.getPreferredLocation(getContext()));
+    }
 
-            PutDataMapRequest pdmr = PutDataMapRequest.create("/watch_data");
-            pdmr.getDataMap().putString("watch_high", formatHigh);
-            pdmr.getDataMap().putString("watch_desc", desc);
-            pdmr.getDataMap().putInt("watch_weather_id", weatherId);
-            pdmr.getDataMap().putLong("watch_time", System.currentTimeMillis());
-            pdmr.getDataMap().putString("watch_low", formatLow);
+    /**
+     * Sends the watch every day we have for the preferred location, from today on, as a
+     * {@link WatchForecast}.  The watch picks out today itself, and formats the temperatures.
+     * Only what changed since the watch last heard goes, and nothing at all when nothing did.
+     */
+    private void notifyWatch(TodaySnapshot today){
 
-            PutDataRequest pdr = pdmr.asPutDataRequest().setUrgent();
-            PendingResult<DataApi.DataItemResult> pendingResult =
-                    Wearable.DataApi.putDataItem(mGoogleApiClient, pdr);
-            pendingResult.setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
-                @Override
-                public void onResult(@NonNull DataApi.DataItemResult dataItemResult) {
+        if (today != null) {
+            Context context = getContext();
+            // The watch is only woken for it if it changes what the watch face shows, which is
+            // today's temperatures and art.
+            WatchSync.getInstance(context).publish(loadWatchForecast(today),
+                    Utility.formatTemperature(context, today.high) + "|" +
+                    Utility.formatTemperature(context, today.low) + "|" + today.weatherId);
+        }
+    }
 
-                    if (!dataItemResult.getStatus().isSuccess()) {
-                        Log.d(LOG_TAG,"unsuccessful, status: "+dataItemResult.getStatus().getStatusMessage()+" "+
-                                dataItemResult.getStatus().getStatusCode());
-                    }
-                    else{
-                        Log.d(LOG_TAG,"successful");
-                    }
-                }
-            });
-            cursor.close();
+    private WatchForecast loadWatchForecast(TodaySnapshot today) {
+        Context context = getContext();
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        today.locationSetting, today.day),
+                ForecastSeries.COLUMNS, null, null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        ForecastSeries series;
+        try {
+            series = ForecastSeries.fromCursor(cursor);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
         }
+        WatchForecast.Builder builder = new WatchForecast.Builder(Utility.isMetric(context));
+        Time dayTime = new Time();
+        for (int i = 0; i < series.size(); i++) {
+            long date = series.getDate(i);
+            dayTime.set(date);
+            builder.addDay(Time.getJulianDay(date, dayTime.gmtoff), series.getWeatherId(i),
+                    series.getMaxTemp(i), series.getMinTemp(i), series.getDescription(i));
+        }
+        return builder.build();
     }
 
 
@@ -172,299 +239,553 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
 
-        // We no longer need just the location String, but also potentially the latitude and
-        // longitude, in case we are syncing based on a new Place Picker API result.
-        Context context = getContext();
-        String locationQuery = Utility.getPreferredLocation(context);
-        String locationLatitude = String.valueOf(Utility.getLocationLatitude(context));
-        String locationLongitude = String.valueOf(Utility.getLocationLongitude(context));
-
-        mGoogleApiClient = new GoogleApiClient.Builder(context).addApiIfAvailable(Wearable.API).
-                addConnectionCallbacks(this).addOnConnectionFailedListener(this).build();
+        if (extras.getBoolean(SYNC_EXTRAS_ALL_LOCATIONS, false)) {
+            syncAllLocations();
+        } else {
+            syncPreferredLocation();
+        }
 
-        mGoogleApiClient.connect();
+        // Nothing else writes to the database, so now is when to fold the write-ahead log back
+        // into it.  Readers don't wait on a passive checkpoint.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            checkpointDatabase();
+        }
+    }
 
-        Log.d(LOG_TAG, "watch getting updated");
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void checkpointDatabase() {
+        getContext().getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_CHECKPOINT, null, null);
+    }
 
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
+    private void syncPreferredLocation() {
+        Context context = getContext();
+        String locationQuery = Utility.getPreferredLocation(context);
+        FetchResult result = fetchForecast(mHttpClient, locationQuery,
+                buildForecastUri(context, locationQuery, true));
 
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
+        if (result.rows != null) {
+            storeWeatherData(locationQuery, result.rows);
+            mHttpCache.put(result.cacheKey, result.etag, result.lastModified, result.payloadHash);
+        } else {
+            if (result.unchanged) {
+                mHttpCache.put(result.cacheKey, result.etag, result.lastModified,
+                        result.payloadHash);
+            }
+            setLocationStatus(context, result.locationStatus);
+        }
+    }
 
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
+    /**
+     * Refreshes the preferred location and every other location in the database in one pass.
+     * The forecasts are fetched in parallel, then written in a single transaction, after which
+     * the watch, widgets, Muzei and the notification hear about it once.
+     */
+    private void syncAllLocations() {
+        Context context = getContext();
+        String preferredLocation = Utility.getPreferredLocation(context);
 
-        try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String LAT_PARAM = "lat";
-            final String LON_PARAM = "lon";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri.Builder uriBuilder = Uri.parse(FORECAST_BASE_URL).buildUpon();
-
-            // Instead of always building the query based off of the location string, we want to
-            // potentially build a query using a lat/lon value. This will be the case when we are
-            // syncing based off of a new location from the Place Picker API. So we need to check
-            // if we have a lat/lon to work with, and use those when we do. Otherwise, the weather
-            // service may not understand the location address provided by the Place Picker API
-            // and the user could end up with no weather! The horror!
-            if (Utility.isLocationLatLonAvailable(context)) {
-                uriBuilder.appendQueryParameter(LAT_PARAM, locationLatitude)
-                        .appendQueryParameter(LON_PARAM, locationLongitude);
-            } else {
-                uriBuilder.appendQueryParameter(QUERY_PARAM, locationQuery);
+        // The preferred location goes first, and is the only one we may have a lat/lon for.
+        LinkedHashMap<String, Uri> targets = new LinkedHashMap<String, Uri>();
+        targets.put(preferredLocation, buildForecastUri(context, preferredLocation, true));
+        Cursor locationCursor = context.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                null, null, null);
+        if (locationCursor != null) {
+            while (locationCursor.moveToNext()) {
+                String locationSetting = locationCursor.getString(0);
+                if (!targets.containsKey(locationSetting)) {
+                    targets.put(locationSetting,
+                            buildForecastUri(context, locationSetting, false));
+                }
             }
+            locationCursor.close();
+        }
 
-            Uri builtUri = uriBuilder.appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(MAX_PARALLEL_FETCHES, targets.size()));
+        List<Future<FetchResult>> futures = new ArrayList<Future<FetchResult>>(targets.size());
+        for (Map.Entry<String, Uri> target : targets.entrySet()) {
+            final String locationSetting = target.getKey();
+            final Uri builtUri = target.getValue();
+            futures.add(executor.submit(new Callable<FetchResult>() {
+                @Override
+                public FetchResult call() {
+                    SyncHttpClient client = mIdleHttpClients.poll();
+                    if (client == null) {
+                        client = new SyncHttpClient();
+                    }
+                    try {
+                        return fetchForecast(client, locationSetting, builtUri);
+                    } finally {
+                        mIdleHttpClients.offer(client);
+                    }
+                }
+            }));
+        }
+        executor.shutdown();
 
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
-            }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
+        List<FetchResult> results = new ArrayList<FetchResult>(futures.size());
+        try {
+            for (Future<FetchResult> future : futures) {
+                results.add(future.get());
             }
+        } catch (InterruptedException e) {
+            // The sync was cancelled.
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            // fetchForecast reports failures in its result, so this is a bug.
+            executor.shutdownNow();
+            throw new RuntimeException(e.getCause());
+        }
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
-            }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error ", e);
-            // If the code didn't successfully get the weather data, there's no point in attempting
-            // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+        FetchResult preferredResult = results.get(0);
+        try {
+            List<String> stored = commitForecasts(results);
+            if (!stored.isEmpty()) {
+                notifyForecastChanged(stored);
             }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
+            Log.d(LOG_TAG, "Sync of " + results.size() + " locations complete. " +
+                    stored.size() + " changed");
+        } catch (RemoteException | OperationApplicationException e) {
+            Log.e(LOG_TAG, "Error storing forecasts", e);
+            setLocationStatus(context, LOCATION_STATUS_SERVER_INVALID);
+            return;
+        }
+
+        // Only remember responses once they're safely in the database.  This sync asked for
+        // every stored location, so any other entry is for one that's gone.
+        List<String> cacheKeys = new ArrayList<String>(results.size());
+        for (FetchResult result : results) {
+            if (result.rows != null || result.unchanged) {
+                mHttpCache.put(result.cacheKey, result.etag, result.lastModified,
+                        result.payloadHash);
             }
+            cacheKeys.add(result.cacheKey);
         }
-        return;
+        mHttpCache.retainAll(cacheKeys);
+        setLocationStatus(context, preferredResult.rows != null
+                ? LOCATION_STATUS_OK : preferredResult.locationStatus);
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
+     * Writes every changed forecast in {@code results} in one transaction with one change
+     * notification: with a single {@link WeatherContract#METHOD_MERGE_FORECASTS} call that
+     * merges each location's series whole, or before Honeycomb, which has no
+     * {@link android.content.ContentResolver#call}, with a single
+     * {@link android.content.ContentResolver#applyBatch} of a row per day.
      *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * @return the locations that had their forecast written.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
-
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
-
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
-
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
-
-        final String OWM_MESSAGE_CODE = "cod";
-
-        try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-            Context context = getContext();
+    private List<String> commitForecasts(List<FetchResult> results)
+            throws RemoteException, OperationApplicationException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return mergeForecasts(results);
+        }
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        long pruneBeforeDate = Long.MAX_VALUE;
+        List<String> stored = new ArrayList<String>(results.size());
+
+        for (FetchResult result : results) {
+            ForecastRows rows = result.rows;
+            if (rows == null || rows.getForecast().size() == 0) {
+                continue;
+            }
+            stored.add(result.locationSetting);
+            pruneBeforeDate = Math.min(pruneBeforeDate, rows.getFirstDate());
+
+            // New locations are inserted in the same batch, and their weather rows pick up the
+            // new location's id through a back reference.
+            long locationId = findLocation(result.locationSetting);
+            int locationOperation = -1;
+            if (locationId == -1) {
+                locationOperation = operations.size();
+                operations.add(ContentProviderOperation
+                        .newInsert(WeatherContract.LocationEntry.CONTENT_URI)
+                        .withValues(createLocationValues(result.locationSetting, rows.cityName,
+                                rows.cityLatitude, rows.cityLongitude))
+                        .build());
+            }
 
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+            // applyBatch only takes ContentValues.
+            ForecastSeries forecast = rows.getForecast();
+            for (int i = 0; i < forecast.size(); i++) {
+                ContentValues weatherValues = forecast.toContentValues(i);
+                ContentProviderOperation.Builder builder = ContentProviderOperation
+                        .newInsert(WeatherContract.WeatherEntry.buildWeatherMergeUri());
+                if (locationOperation == -1) {
+                    weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+                } else {
+                    builder.withValueBackReference(WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                            locationOperation);
                 }
+                operations.add(builder.withValues(weatherValues).build());
             }
+        }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+        if (!stored.isEmpty()) {
+            // delete old data so we don't build up an endless history
+            operations.add(ContentProviderOperation
+                    .newDelete(WeatherContract.WeatherEntry.CONTENT_URI)
+                    .withSelection(WeatherContract.WeatherEntry.COLUMN_DATE + " < ?",
+                            new String[]{Long.toString(pruneBeforeDate)})
+                    .build());
+            getContext().getContentResolver().applyBatch(
+                    WeatherContract.CONTENT_AUTHORITY, operations);
+        }
+        return stored;
+    }
 
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private List<String> mergeForecasts(List<FetchResult> results) {
+        ArrayList<Bundle> forecasts = new ArrayList<Bundle>(results.size());
+        long pruneBeforeDate = Long.MAX_VALUE;
+        List<String> stored = new ArrayList<String>(results.size());
 
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+        for (FetchResult result : results) {
+            ForecastRows rows = result.rows;
+            if (rows == null || rows.getForecast().size() == 0) {
+                continue;
+            }
+            stored.add(result.locationSetting);
+            pruneBeforeDate = Math.min(pruneBeforeDate, rows.getFirstDate());
+
+            // New locations are inserted by the provider, in the same transaction.
+            Bundle forecast = rows.getForecast().toBundle();
+            long locationId = findLocation(result.locationSetting);
+            if (locationId == -1) {
+                forecast.putParcelable(WeatherContract.EXTRA_LOCATION_VALUES,
+                        createLocationValues(result.locationSetting, rows.cityName,
+                                rows.cityLatitude, rows.cityLongitude));
+            } else {
+                forecast.putLong(WeatherContract.EXTRA_LOCATION_ID, locationId);
+            }
+            forecasts.add(forecast);
+        }
 
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
+        if (!stored.isEmpty()) {
+            Bundle extras = new Bundle();
+            extras.putParcelableArrayList(WeatherContract.EXTRA_FORECASTS, forecasts);
+            extras.putLong(WeatherContract.EXTRA_PRUNE_BEFORE, pruneBeforeDate);
+            getContext().getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                    WeatherContract.METHOD_MERGE_FORECASTS, null, extras);
+        }
+        return stored;
+    }
 
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
+    /**
+     * Builds the OpenWeatherMap query for a location.
+     *
+     * @param useLatLon whether to query by the lat/lon the Place Picker gave us, if we have one.
+     *                  That only ever describes the preferred location.
+     */
+    private static Uri buildForecastUri(Context context, String locationQuery, boolean useLatLon) {
+        String format = "json";
+        String units = "metric";
+        int numDays = 14;
 
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
+        // Construct the URL for the OpenWeatherMap query
+        // Possible parameters are avaiable at OWM's forecast API page, at
+        // http://openweathermap.org/API#forecast
+        final String FORECAST_BASE_URL =
+                "http://api.openweathermap.org/data/2.5/forecast/daily?";
+        final String QUERY_PARAM = "q";
+        final String LAT_PARAM = "lat";
+        final String LON_PARAM = "lon";
+        final String FORMAT_PARAM = "mode";
+        final String UNITS_PARAM = "units";
+        final String DAYS_PARAM = "cnt";
+        final String APPID_PARAM = "APPID";
+
+        Uri.Builder uriBuilder = Uri.parse(FORECAST_BASE_URL).buildUpon();
+
+        // Instead of always building the query based off of the location string, we want to
+        // potentially build a query using a lat/lon value. This will be the case when we are
+        // syncing based off of a new location from the Place Picker API. So we need to check
+        // if we have a lat/lon to work with, and use those when we do. Otherwise, the weather
+        // service may not understand the location address provided by the Place Picker API
+        // and the user could end up with no weather! The horror!
+        if (useLatLon && Utility.isLocationLatLonAvailable(context)) {
+            uriBuilder.appendQueryParameter(LAT_PARAM,
+                    String.valueOf(Utility.getLocationLatitude(context)))
+                    .appendQueryParameter(LON_PARAM,
+                            String.valueOf(Utility.getLocationLongitude(context)));
+        } else {
+            uriBuilder.appendQueryParameter(QUERY_PARAM, locationQuery);
+        }
 
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
+        return uriBuilder.appendQueryParameter(FORMAT_PARAM, format)
+                .appendQueryParameter(UNITS_PARAM, units)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+    }
 
-            Time dayTime = new Time();
-            dayTime.setToNow();
+    /**
+     * The outcome of fetching one location's forecast.
+     */
+    private static class FetchResult {
+        final String locationSetting;
+        final String cacheKey;
+
+        // Set when the server sent a forecast different from the one we have.
+        ForecastRows rows;
+        // Set when the server told us, one way or another, that our forecast is current.
+        boolean unchanged;
+        // What to report if neither of the above is set.
+        @LocationStatus int locationStatus = LOCATION_STATUS_UNKNOWN;
+
+        String etag;
+        String lastModified;
+        String payloadHash;
+
+        FetchResult(String locationSetting, String cacheKey) {
+            this.locationSetting = locationSetting;
+            this.cacheKey = cacheKey;
+        }
+    }
 
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+    /**
+     * Fetches and parses one location's forecast, without touching the database or the location
+     * status.  Safe to call from several threads at once, as long as each uses its own client.
+     */
+    private FetchResult fetchForecast(SyncHttpClient client, String locationQuery, Uri builtUri) {
+        String cacheKey = builtUri.toString();
+        FetchResult result = new FetchResult(locationQuery, cacheKey);
 
-            // now we work exclusively in UTC
-            dayTime = new Time();
+        // This needs to be declared outside the try/catch
+        // so that it can be closed in the finally block.
+        SyncHttpClient.Response response = null;
 
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
+        try {
+            URL url = new URL(cacheKey);
 
-                double high;
-                double low;
+            // If we still have today's weather for this location, ask the server to only send
+            // the forecast if it changed since we stored it.  Most periodic syncs end right here.
+            ForecastHttpCache.Entry cached = hasWeatherForToday(locationQuery)
+                    ? mHttpCache.get(cacheKey) : null;
 
-                String description;
-                int weatherId;
+            // Create the request to OpenWeatherMap, and open the connection
+            response = client.get(url, cached);
+
+            if (response.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                if (cached == null) {
+                    // We sent no validators, so there's nothing this could be "not modified"
+                    // from; a proxy got it wrong.  Asking again would only ask the same thing.
+                    Log.w(LOG_TAG, "Forecast for " + locationQuery +
+                            " not modified, but nothing was cached");
+                    result.locationStatus = LOCATION_STATUS_SERVER_DOWN;
+                    return result;
+                }
+                Log.d(LOG_TAG, "Forecast for " + locationQuery + " not modified");
+                result.unchanged = true;
+                result.locationStatus = LOCATION_STATUS_OK;
+                result.etag = cached.etag;
+                result.lastModified = cached.lastModified;
+                result.payloadHash = cached.payloadHash;
+                return result;
+            }
 
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
+            InputStream inputStream = response.getBody();
 
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
+            // Hash the body as it streams past the parser, so that a full response which is
+            // byte-for-byte the one we already have doesn't get written and announced again.
+            MessageDigest payloadDigest = ForecastHttpCache.newPayloadDigest();
+            if (payloadDigest != null) {
+                inputStream = new DigestInputStream(inputStream, payloadDigest);
+            }
+            ForecastRows rows = getWeatherDataFromStream(inputStream, result);
+            if (rows == null) {
+                return result;
+            }
+            result.payloadHash = payloadDigest == null
+                    ? null : ForecastHttpCache.toHex(payloadDigest.digest());
+            result.etag = response.getHeaderField("ETag");
+            result.lastModified = response.getHeaderField("Last-Modified");
+
+            if (cached != null && result.payloadHash != null
+                    && result.payloadHash.equals(cached.payloadHash)) {
+                Log.d(LOG_TAG, "Forecast for " + locationQuery + " unchanged");
+                result.unchanged = true;
+                result.locationStatus = LOCATION_STATUS_OK;
+            } else {
+                result.rows = rows;
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error ", e);
+            // If the code didn't successfully get the weather data, there's no point in attempting
+            // to parse it.
+            result.locationStatus = LOCATION_STATUS_SERVER_DOWN;
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            e.printStackTrace();
+            result.locationStatus = LOCATION_STATUS_SERVER_INVALID;
+        } finally {
+            if (response != null) {
+                Log.d(LOG_TAG, "Forecast response: " + response.getWireBytes() +
+                        " bytes on the wire, " + response.getDecodedBytes() + " bytes decoded");
+                response.close();
+            }
+        }
+        return result;
+    }
 
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
+    /**
+     * Parses the forecast out of the response stream.
+     *
+     * On Honeycomb and up this pulls one day at a time off the stream with a
+     * {@link android.util.JsonReader}, so we never hold the raw response, nor a JSONObject tree
+     * built from it.  Older devices read the response into a String and parse that.
+     *
+     * @return the parsed forecast, or null if the server sent an error, in which case its
+     * location status has been recorded in {@code result}.
+     */
+    private ForecastRows getWeatherDataFromStream(InputStream inputStream, FetchResult result)
+            throws IOException, JSONException {
+        ForecastRows rows = new ForecastRows();
+        int messageCode;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            messageCode = ForecastJsonParser.parse(inputStream, rows);
+        } else {
+            String forecastJsonStr = ForecastJsonParser.readFully(inputStream);
+            if (forecastJsonStr == null) {
+                // Stream was empty.  No point in parsing.
+                result.locationStatus = LOCATION_STATUS_SERVER_DOWN;
+                return null;
+            }
+            messageCode = ForecastJsonParser.parse(forecastJsonStr, rows);
+        }
 
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
+        switch (messageCode) {
+            case HttpURLConnection.HTTP_OK:
+                return rows;
+            case HttpURLConnection.HTTP_NOT_FOUND:
+                result.locationStatus = LOCATION_STATUS_INVALID;
+                return null;
+            default:
+                result.locationStatus = LOCATION_STATUS_SERVER_DOWN;
+                return null;
+        }
+    }
 
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
+    /**
+     * @return whether the database still holds today's weather for {@code locationSetting}.
+     * When it doesn't, say because the location changed or the database was recreated, a
+     * "not modified" answer from the server would leave us with nothing to show.
+     */
+    private boolean hasWeatherForToday(String locationSetting) {
+        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                locationSetting, System.currentTimeMillis());
+        Cursor cursor = getContext().getContentResolver().query(weatherUri,
+                new String[]{WeatherContract.WeatherEntry.TABLE_NAME + "." +
+                        WeatherContract.WeatherEntry._ID},
+                null, null, null);
+        if (cursor == null) {
+            return false;
+        }
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
 
-                ContentValues weatherValues = new ContentValues();
+    /**
+     * Collects the parsed forecast, dating each day as it arrives.  The first day is today.
+     */
+    private static class ForecastRows implements ForecastJsonParser.Callback {
+        String cityName;
+        double cityLatitude;
+        double cityLongitude;
+
+        private final ForecastSeries.Builder mDays = new ForecastSeries.Builder(16);
+        private final int mJulianStartDay = getJulianStartDay();
+        // now we work exclusively in UTC
+        private final Time mDayTime = new Time();
+        private ForecastSeries mForecast;
+
+        @Override
+        public void onCity(String cityName, double lat, double lon) {
+            this.cityName = cityName;
+            cityLatitude = lat;
+            cityLongitude = lon;
+        }
 
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        @Override
+        public void onDay(int dayIndex, int weatherId, String description, double maxTemp,
+                double minTemp, double humidity, double pressure, double windSpeed,
+                double degrees) {
+            // Cheating to convert this to UTC time, which is what we want anyhow
+            mDays.addDay(mDayTime.setJulianDay(mJulianStartDay + dayIndex), weatherId,
+                    description, maxTemp, minTemp, humidity, pressure, windSpeed, degrees);
+        }
 
-                cVVector.add(weatherValues);
+        ForecastSeries getForecast() {
+            if (mForecast == null) {
+                mForecast = mDays.build();
             }
+            return mForecast;
+        }
 
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
-
-				notifyWatch();
-                Log.d(LOG_TAG, "notifying watch");
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
-				
+        /**
+         * @return the date of the forecast's first day.  Anything stored from before it is
+         * history we don't keep.
+         */
+        long getFirstDate() {
+            return mDayTime.setJulianDay(mJulianStartDay);
+        }
+    }
+
+    /**
+     * Writes the parsed days to the database and lets everyone who shows the weather know about
+     * it.
+     */
+    private void storeWeatherData(String locationSetting, ForecastRows rows) {
+        long locationId = addLocation(locationSetting,
+                rows.cityName, rows.cityLatitude, rows.cityLongitude);
+        ForecastSeries forecast = rows.getForecast();
+
+        // Merge into the database: only days that are new or changed get written, and old data
+        // is deleted in the same transaction so we don't build up an endless history.
+        int changed = 0;
+        if (forecast.size() > 0) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                changed = mergeForecast(locationId, forecast, rows.getFirstDate());
+            } else {
+                ContentValues[] cvArray = new ContentValues[forecast.size()];
+                for (int i = 0; i < cvArray.length; i++) {
+                    cvArray[i] = forecast.toContentValues(i);
+                    cvArray[i].put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+                }
+                changed = getContext().getContentResolver().bulkInsert(
+                        WeatherContract.WeatherEntry.buildWeatherMergeUri(rows.getFirstDate()),
+                        cvArray);
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+        }
 
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+        if (changed > 0) {
+            notifyForecastChanged(Collections.singleton(locationSetting));
         }
+        Log.d(LOG_TAG, "Sync Complete. " + changed + " Changed");
+        setLocationStatus(getContext(), LOCATION_STATUS_OK);
+    }
+
+    /**
+     * Hands the series to the provider as it is, rather than as a ContentValues per day.
+     *
+     * @return the number of rows changed.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private int mergeForecast(long locationId, ForecastSeries forecast, long pruneBeforeDate) {
+        Bundle extras = forecast.toBundle();
+        extras.putLong(WeatherContract.EXTRA_LOCATION_ID, locationId);
+        extras.putLong(WeatherContract.EXTRA_PRUNE_BEFORE, pruneBeforeDate);
+        Bundle result = getContext().getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_MERGE_FORECAST, null, extras);
+        return result == null ? 0 : result.getInt(WeatherContract.EXTRA_CHANGED_COUNT);
     }
 
     private void updateWidgets() {
@@ -485,7 +806,57 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
         }
     }
 
-    private void notifyWeather() {
+    /**
+     * Lets everything that shows today's weather know there's a new forecast for
+     * {@code locationSettings}, through the {@link ForecastChangeBus}, which doesn't keep the
+     * sync waiting on any of them.  They all read the snapshot published here rather than
+     * querying for it again.
+     */
+    private void notifyForecastChanged(Collection<String> locationSettings) {
+        TodaySnapshot.refresh(getContext());
+        ForecastChangeBus.getInstance(getContext()).post(locationSettings);
+    }
+
+    /**
+     * Has the art for every condition in the preferred location's forecast loaded and ready,
+     * waiting a while for it, so the list, the widgets and the notification never have to.
+     */
+    private void prefetchArt() {
+        Context context = getContext();
+        String locationSetting = Utility.getPreferredLocation(context);
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        locationSetting, System.currentTimeMillis()),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_WEATHER_ID},
+                null, null, null);
+        if (cursor == null) {
+            return;
+        }
+        int[] weatherIds;
+        try {
+            weatherIds = new int[cursor.getCount()];
+            int count = 0;
+            while (cursor.moveToNext()) {
+                int weatherId = cursor.getInt(0);
+                // A forecast has only a handful of conditions, so a linear check will do.
+                boolean seen = false;
+                for (int i = 0; i < count && !seen; i++) {
+                    seen = weatherIds[i] == weatherId;
+                }
+                if (!seen) {
+                    weatherIds[count++] = weatherId;
+                }
+            }
+            weatherIds = Arrays.copyOf(weatherIds, count);
+        } finally {
+            cursor.close();
+        }
+        if (!WeatherArtCache.getInstance(context).prefetch(weatherIds, ART_PREFETCH_TIMEOUT)) {
+            Log.w(LOG_TAG, "Art prefetch didn't finish in time, carrying on without it");
+        }
+    }
+
+    private void notifyWeather(TodaySnapshot today) {
         Context context = getContext();
         //checking the last update and notify if it' the first of the day
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
@@ -500,48 +871,25 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
 
             if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utility.getPreferredLocation(context);
-
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
+                if (today != null) {
+                    int weatherId = today.weatherId;
+                    double high = today.high;
+                    double low = today.low;
+                    String desc = today.description;
 
                     int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
                     Resources resources = context.getResources();
-                    int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-                    String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
-
-                    // On Honeycomb and higher devices, we can retrieve the size of the large icon
-                    // Prior to that, we use a fixed size
-                    @SuppressLint("InlinedApi")
-                    int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-                    @SuppressLint("InlinedApi")
-                    int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-
-                    // Retrieve the large icon
-                    Bitmap largeIcon;
-                    try {
-                        largeIcon = Glide.with(context)
-                                .load(artUrl)
-                                .asBitmap()
-                                .error(artResourceId)
-                                .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
-                        largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
-                    }
+
+                    int[] largeIconSize = WeatherArtCache.getLargeIconSize(resources);
+                    int largeIconWidth = largeIconSize[0];
+                    int largeIconHeight = largeIconSize[1];
+
+                    // Retrieve the large icon.  The art was prefetched along with the forecast,
+                    // but if it isn't there, the notification waits a moment for it and then
+                    // goes out without it.  It isn't posted again once the art turns up, which
+                    // would bring it back if the user had dismissed it.
+                    Bitmap largeIcon = WeatherArtCache.getInstance(context).get(weatherId,
+                            largeIconWidth, largeIconHeight, LARGE_ICON_TIMEOUT);
                     String title = context.getString(R.string.app_name);
 
                     // Define the text of the forecast.
@@ -587,7 +935,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
                     editor.putLong(lastNotificationKey, System.currentTimeMillis());
                     editor.commit();
                 }
-                cursor.close();
             }
         }
     }
@@ -602,62 +949,110 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
      * @return the row ID of the added location.
      */
     long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
         // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
+        long locationId = findLocation(locationSetting);
 
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
+        if (locationId == -1) {
             // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
             Uri insertedUri = getContext().getContentResolver().insert(
                     WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
+                    createLocationValues(locationSetting, cityName, lat, lon)
             );
 
             // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
             locationId = ContentUris.parseId(insertedUri);
         }
 
-        locationCursor.close();
         // Wait, that worked?  Yes!
         return locationId;
     }
 
+    /**
+     * @return the row ID of the location with this setting, or -1 if it's not in the db.
+     */
+    private long findLocation(String locationSetting) {
+        long locationId = -1;
+        Cursor locationCursor = getContext().getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null);
+
+        if (locationCursor != null) {
+            if (locationCursor.moveToFirst()) {
+                locationId = locationCursor.getLong(0);
+            }
+            locationCursor.close();
+        }
+        return locationId;
+    }
+
+    private static ContentValues createLocationValues(String locationSetting, String cityName,
+            double lat, double lon) {
+        // Add the data, along with the corresponding name of the data type,
+        // so the content provider knows what kind of value is being inserted.
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+        return locationValues;
+    }
+
+    /**
+     * @return the Julian day the forecasts we just fetched start on.
+     */
+    private static int getJulianStartDay() {
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
+
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
+
+        Time dayTime = new Time();
+        dayTime.setToNow();
+
+        // we start at the day returned by local time. Otherwise this is a mess.
+        return Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+    }
+
     /**
      * Helper method to schedule the sync adapter periodic execution
      */
     public static void configurePeriodicSync(Context context, int syncInterval, int flexTime) {
         Account account = getSyncAccount(context);
         String authority = context.getString(R.string.content_authority);
+        // The periodic sync keeps every stored location fresh, in one pass.
+        Bundle extras = new Bundle();
+        extras.putBoolean(SYNC_EXTRAS_ALL_LOCATIONS, true);
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
             // we can enable inexact timers in our periodic sync
             SyncRequest request = new SyncRequest.Builder().
                     syncPeriodic(syncInterval, flexTime).
                     setSyncAdapter(account, authority).
-                    setExtras(new Bundle()).build();
+                    setExtras(extras).build();
             ContentResolver.requestSync(request);
         } else {
             ContentResolver.addPeriodicSync(account,
-                    authority, new Bundle(), syncInterval);
+                    authority, extras, syncInterval);
+        }
+    }
+
+    /**
+     * Periodic syncs are told apart by their extras, so one scheduled before the periodic sync
+     * covered every location would run alongside the new one.  This swaps it for the new one.
+     */
+    private static void updatePeriodicSync(Context context, Account account) {
+        String authority = context.getString(R.string.content_authority);
+        for (PeriodicSync sync : ContentResolver.getPeriodicSyncs(account, authority)) {
+            if (!sync.extras.getBoolean(SYNC_EXTRAS_ALL_LOCATIONS, false)) {
+                ContentResolver.removePeriodicSync(account, authority, sync.extras);
+                configurePeriodicSync(context, SYNC_INTERVAL, SYNC_FLEXTIME);
+                return;
+            }
         }
     }
 
@@ -673,6 +1068,20 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
                 context.getString(R.string.content_authority), bundle);
     }
 
+    /**
+     * Helper method to have the sync adapter refresh every location in the database right away,
+     * in a single pass.
+     * @param context The context used to access the account service
+     */
+    public static void syncAllLocationsImmediately(Context context) {
+        Bundle bundle = new Bundle();
+        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
+        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        bundle.putBoolean(SYNC_EXTRAS_ALL_LOCATIONS, true);
+        ContentResolver.requestSync(getSyncAccount(context),
+                context.getString(R.string.content_authority), bundle);
+    }
+
     /**
      * Helper method to get the fake account to be used with SyncAdapter, or make a new one
      * if the fake account doesn't exist yet.  If we make a new account, we call the
@@ -730,8 +1139,10 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
     }
 
     public static void initializeSyncAdapter(Context context) {
-        getSyncAccount(context);
-
+        Account account = getSyncAccount(context);
+        if (account != null) {
+            updatePeriodicSync(context, account);
+        }
     }
 
     /**
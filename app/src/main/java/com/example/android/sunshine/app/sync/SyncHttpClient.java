@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The little HTTP client the sync adapter fetches forecasts with.
+ *
+ * It asks for a compressed response and decodes it as it is read, gives up on connections and
+ * reads that stall, and refuses bodies that decode to more than we would ever expect from the
+ * forecast API.  The decoded body is read through a buffer that belongs to the client, so a sync
+ * doesn't allocate a fresh one each time; that also means only one response may be open on a
+ * client at a time.
+ */
+class SyncHttpClient {
+
+    static final int CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    static final int READ_TIMEOUT_MILLIS = 20 * 1000;
+
+    // A 16 day forecast decodes to about 6KB, so this leaves plenty of room.
+    static final int MAX_BODY_BYTES = 256 * 1024;
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+    private Response mOpenResponse;
+
+    /**
+     * Issues a GET for {@code url}.  The caller must {@link Response#close()} the response.
+     *
+     * @param validators if not null, makes this a conditional request
+     */
+    Response get(URL url, ForecastHttpCache.Entry validators) throws IOException {
+        if (mOpenResponse != null) {
+            throw new IllegalStateException("The previous response was not closed");
+        }
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        try {
+            urlConnection.setRequestMethod("GET");
+            urlConnection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            urlConnection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            // Asking for an encoding ourselves turns off HttpURLConnection's transparent gzip
+            // support, which is what lets us count the compressed bytes.
+            urlConnection.setRequestProperty("Accept-Encoding", "gzip, deflate");
+            ForecastHttpCache.addConditionalHeaders(urlConnection, validators);
+            urlConnection.connect();
+            mOpenResponse = new Response(urlConnection);
+            return mOpenResponse;
+        } catch (IOException | RuntimeException e) {
+            urlConnection.disconnect();
+            throw e;
+        }
+    }
+
+    class Response {
+        private final HttpURLConnection mUrlConnection;
+        private CountingInputStream mWireStream;
+        private BoundedInputStream mBodyStream;
+
+        private Response(HttpURLConnection urlConnection) {
+            mUrlConnection = urlConnection;
+        }
+
+        int getResponseCode() throws IOException {
+            return mUrlConnection.getResponseCode();
+        }
+
+        String getHeaderField(String name) {
+            return mUrlConnection.getHeaderField(name);
+        }
+
+        /**
+         * @return the decoded body.  Reading past {@link #MAX_BODY_BYTES} throws an IOException.
+         */
+        InputStream getBody() throws IOException {
+            if (mBodyStream == null) {
+                mWireStream = new CountingInputStream(mUrlConnection.getInputStream());
+                InputStream decoded;
+                String encoding = mUrlConnection.getContentEncoding();
+                if ("gzip".equalsIgnoreCase(encoding)) {
+                    decoded = new GZIPInputStream(mWireStream, BUFFER_SIZE);
+                } else if ("deflate".equalsIgnoreCase(encoding)) {
+                    decoded = new InflaterInputStream(mWireStream, new Inflater(), BUFFER_SIZE);
+                } else {
+                    decoded = mWireStream;
+                }
+                mBodyStream = new BoundedInputStream(decoded, mBuffer, MAX_BODY_BYTES);
+            }
+            return mBodyStream;
+        }
+
+        /**
+         * @return how many body bytes came over the network so far.
+         */
+        long getWireBytes() {
+            return mWireStream == null ? 0 : mWireStream.mCount;
+        }
+
+        /**
+         * @return how many bytes the body decoded to so far.
+         */
+        long getDecodedBytes() {
+            return mBodyStream == null ? 0 : mBodyStream.mTotal;
+        }
+
+        void close() {
+            if (mOpenResponse != this) {
+                return;
+            }
+            if (mBodyStream != null) {
+                try {
+                    mBodyStream.close();
+                } catch (IOException e) {
+                    // We're done with it either way.
+                }
+            }
+            mUrlConnection.disconnect();
+            mOpenResponse = null;
+        }
+    }
+
+    /**
+     * Counts the bytes read through it.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b != -1) mCount++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int n = in.read(buffer, offset, count);
+            if (n > 0) mCount += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            long n = in.skip(byteCount);
+            if (n > 0) mCount += n;
+            return n;
+        }
+    }
+
+    /**
+     * Reads the underlying stream in chunks of a caller-supplied buffer, and fails once more
+     * than a given number of bytes have come through.
+     */
+    private static class BoundedInputStream extends FilterInputStream {
+        private final byte[] mBuf;
+        private final long mLimit;
+        private int mPos;
+        private int mCount;
+        long mTotal;
+
+        BoundedInputStream(InputStream in, byte[] buffer, long limit) {
+            super(in);
+            mBuf = buffer;
+            mLimit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (mPos >= mCount && !fill()) {
+                return -1;
+            }
+            return mBuf[mPos++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            if (count == 0) {
+                return 0;
+            }
+            if (mPos >= mCount && !fill()) {
+                return -1;
+            }
+            int n = Math.min(count, mCount - mPos);
+            System.arraycopy(mBuf, mPos, buffer, offset, n);
+            mPos += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            long skipped = 0;
+            while (skipped < byteCount) {
+                if (mPos >= mCount && !fill()) {
+                    break;
+                }
+                int n = (int) Math.min(byteCount - skipped, mCount - mPos);
+                mPos += n;
+                skipped += n;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (mCount - mPos) + in.available();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void mark(int readLimit) {
+        }
+
+        @Override
+        public void reset() throws IOException {
+            throw new IOException("mark/reset not supported");
+        }
+
+        private boolean fill() throws IOException {
+            int n = in.read(mBuf, 0, mBuf.length);
+            if (n <= 0) {
+                mPos = mCount = 0;
+                return false;
+            }
+            mTotal += n;
+            if (mTotal > mLimit) {
+                throw new IOException("Response body is larger than " + mLimit + " bytes");
+            }
+            mPos = 0;
+            mCount = n;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.util.Log;
+
+import com.google.android.gms.wearable.MessageEvent;
+import com.google.android.gms.wearable.WearableListenerService;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Hears from the watches which version of the forecast they have, for {@link WatchSync}.
+ */
+public class WatchAckListenerService extends WearableListenerService {
+
+    private static final String LOG_TAG = WatchAckListenerService.class.getSimpleName();
+
+    @Override
+    public void onMessageReceived(MessageEvent messageEvent) {
+        if (!WatchSync.ACK_PATH.equals(messageEvent.getPath())) {
+            return;
+        }
+        byte[] data = messageEvent.getData();
+        if (data == null || data.length != 8) {
+            Log.w(LOG_TAG, "Malformed ack from " + messageEvent.getSourceNodeId());
+            return;
+        }
+        WatchSync.getInstance(this).onAck(messageEvent.getSourceNodeId(),
+                ByteBuffer.wrap(data).getLong());
+    }
+}
@@ -0,0 +1,398 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The forecast as the watch gets it: every day the phone has, packed into a byte array small
+ * enough to go in a single data item.
+ *
+ * Temperatures go as Celsius, with the phone's choice of units alongside, so the watch formats
+ * them itself.  Version 1 of the encoding is:
+ * <pre>
+ *   version        byte
+ *   flags          byte, {@link #FLAG_METRIC} when the phone shows metric temperatures
+ *   descriptions   varint count, then each as a varint length and that many UTF-8 bytes
+ *   days           varint count, then for each day
+ *     julian day   varint, the first day's whole, after that the offset from the day before
+ *     weather id   varint
+ *     high, low    zigzag varints, in tenths of a degree
+ *     description  varint index into the descriptions
+ * </pre>
+ *
+ * The watch has a copy of this class, which has to stay in step with this one.
+ */
+public final class WatchForecast {
+
+    public static final int VERSION = 1;
+    static final int FLAG_METRIC = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final boolean mMetric;
+    private final int[] mJulianDays;
+    private final int[] mWeatherIds;
+    // In tenths of a degree Celsius.
+    private final int[] mHighs;
+    private final int[] mLows;
+    private final String[] mDescriptions;
+
+    private WatchForecast(boolean metric, int[] julianDays, int[] weatherIds, int[] highs,
+            int[] lows, String[] descriptions) {
+        mMetric = metric;
+        mJulianDays = julianDays;
+        mWeatherIds = weatherIds;
+        mHighs = highs;
+        mLows = lows;
+        mDescriptions = descriptions;
+    }
+
+    public boolean isMetric() {
+        return mMetric;
+    }
+
+    public int size() {
+        return mJulianDays.length;
+    }
+
+    public int getJulianDay(int day) {
+        return mJulianDays[day];
+    }
+
+    public int getWeatherId(int day) {
+        return mWeatherIds[day];
+    }
+
+    /**
+     * @return the day's high, in Celsius, to the nearest tenth.
+     */
+    public double getHigh(int day) {
+        return mHighs[day] / 10.0;
+    }
+
+    /**
+     * @return the day's low, in Celsius, to the nearest tenth.
+     */
+    public double getLow(int day) {
+        return mLows[day] / 10.0;
+    }
+
+    public String getDescription(int day) {
+        return mDescriptions[day];
+    }
+
+    /**
+     * @return the first day on or after {@code julianDay}, or -1 if the forecast ends before it.
+     */
+    public int indexOfJulianDay(int julianDay) {
+        for (int day = 0; day < mJulianDays.length; day++) {
+            if (mJulianDays[day] >= julianDay) {
+                return day;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the days of this forecast that {@code base} doesn't have, or has different weather
+     * for, in this forecast's units.
+     */
+    public WatchForecast changesFrom(WatchForecast base) {
+        Builder changes = new Builder(mMetric);
+        int baseDay = 0;
+        for (int day = 0; day < size(); day++) {
+            // Both are in order, so the matching day in base is never behind the last one.
+            while (baseDay < base.size() && base.mJulianDays[baseDay] < mJulianDays[day]) {
+                baseDay++;
+            }
+            if (baseDay == base.size() || !isSameDay(day, base, baseDay)) {
+                changes.copyDay(this, day);
+            }
+        }
+        return changes.build();
+    }
+
+    /**
+     * Applies {@link #changesFrom changes} to the forecast they were worked out from.
+     *
+     * @return the days of {@code base} from {@code firstJulianDay} to {@code lastJulianDay},
+     * with the days in {@code changes} added or in their place, in the units of changes.
+     */
+    public static WatchForecast applyChanges(WatchForecast base, WatchForecast changes,
+            int firstJulianDay, int lastJulianDay) {
+        Builder merged = new Builder(changes.mMetric);
+        int baseDay = 0;
+        int changedDay = 0;
+        while (baseDay < base.size() || changedDay < changes.size()) {
+            int baseJulianDay = baseDay < base.size()
+                    ? base.mJulianDays[baseDay] : Integer.MAX_VALUE;
+            int changedJulianDay = changedDay < changes.size()
+                    ? changes.mJulianDays[changedDay] : Integer.MAX_VALUE;
+            if (changedJulianDay <= baseJulianDay) {
+                if (changedJulianDay == baseJulianDay) {
+                    baseDay++;
+                }
+                if (changedJulianDay >= firstJulianDay && changedJulianDay <= lastJulianDay) {
+                    merged.copyDay(changes, changedDay);
+                }
+                changedDay++;
+            } else {
+                if (baseJulianDay >= firstJulianDay && baseJulianDay <= lastJulianDay) {
+                    merged.copyDay(base, baseDay);
+                }
+                baseDay++;
+            }
+        }
+        return merged.build();
+    }
+
+    private boolean isSameDay(int day, WatchForecast other, int otherDay) {
+        return mJulianDays[day] == other.mJulianDays[otherDay] &&
+                mWeatherIds[day] == other.mWeatherIds[otherDay] &&
+                mHighs[day] == other.mHighs[otherDay] &&
+                mLows[day] == other.mLows[otherDay] &&
+                mDescriptions[day].equals(other.mDescriptions[otherDay]);
+    }
+
+    /**
+     * Formats a temperature the way the phone does, in the forecast's units.
+     */
+    public String formatTemperature(double celsius) {
+        double temperature = mMetric ? celsius : (celsius * 1.8) + 32;
+        return String.format(Locale.getDefault(), "%1.0f\u00B0", temperature);
+    }
+
+    public byte[] toByteArray() {
+        // Descriptions repeat a lot over two weeks, so each goes once and days refer to it.
+        List<String> descriptions = new ArrayList<String>();
+        int[] descriptionIndexes = new int[mDescriptions.length];
+        for (int day = 0; day < mDescriptions.length; day++) {
+            int index = descriptions.indexOf(mDescriptions[day]);
+            if (index == -1) {
+                index = descriptions.size();
+                descriptions.add(mDescriptions[day]);
+            }
+            descriptionIndexes[day] = index;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 + 8 * size());
+        out.write(VERSION);
+        out.write(mMetric ? FLAG_METRIC : 0);
+        writeVarint(out, descriptions.size());
+        for (String description : descriptions) {
+            byte[] bytes = description.getBytes(UTF_8);
+            writeVarint(out, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+        writeVarint(out, size());
+        for (int day = 0; day < size(); day++) {
+            writeVarint(out, day == 0
+                    ? mJulianDays[0] : mJulianDays[day] - mJulianDays[day - 1]);
+            writeVarint(out, mWeatherIds[day]);
+            writeVarint(out, zigzag(mHighs[day]));
+            writeVarint(out, zigzag(mLows[day]));
+            writeVarint(out, descriptionIndexes[day]);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @throws IllegalArgumentException if {@code bytes} isn't a forecast in a version this
+     * understands.
+     */
+    public static WatchForecast fromByteArray(byte[] bytes) {
+        Reader in = new Reader(bytes);
+        int version = in.readByte();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unknown version " + version);
+        }
+        boolean metric = (in.readByte() & FLAG_METRIC) != 0;
+        String[] descriptions = new String[in.readCount()];
+        for (int i = 0; i < descriptions.length; i++) {
+            descriptions[i] = in.readString();
+        }
+        int size = in.readCount();
+        int[] julianDays = new int[size];
+        int[] weatherIds = new int[size];
+        int[] highs = new int[size];
+        int[] lows = new int[size];
+        String[] dayDescriptions = new String[size];
+        for (int day = 0; day < size; day++) {
+            int julianDay = in.readVarint();
+            julianDays[day] = day == 0 ? julianDay : julianDays[day - 1] + julianDay;
+            weatherIds[day] = in.readVarint();
+            highs[day] = unzigzag(in.readVarint());
+            lows[day] = unzigzag(in.readVarint());
+            int description = in.readVarint();
+            if (description < 0 || description >= descriptions.length) {
+                throw new IllegalArgumentException("No description " + description);
+            }
+            dayDescriptions[day] = descriptions[description];
+        }
+        return new WatchForecast(metric, julianDays, weatherIds, highs, lows, dayDescriptions);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof WatchForecast)) return false;
+        WatchForecast that = (WatchForecast) o;
+        return mMetric == that.mMetric &&
+                Arrays.equals(mJulianDays, that.mJulianDays) &&
+                Arrays.equals(mWeatherIds, that.mWeatherIds) &&
+                Arrays.equals(mHighs, that.mHighs) &&
+                Arrays.equals(mLows, that.mLows) &&
+                Arrays.equals(mDescriptions, that.mDescriptions);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Arrays.hashCode(mJulianDays);
+        result = 31 * result + Arrays.hashCode(mWeatherIds);
+        result = 31 * result + Arrays.hashCode(mHighs);
+        result = 31 * result + Arrays.hashCode(mLows);
+        result = 31 * result + Arrays.hashCode(mDescriptions);
+        return 31 * result + (mMetric ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return "WatchForecast{metric=" + mMetric + ", days=" + Arrays.toString(mJulianDays) + "}";
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static final class Reader {
+        private final byte[] mBytes;
+        private int mPosition;
+
+        Reader(byte[] bytes) {
+            mBytes = bytes;
+        }
+
+        int readByte() {
+            if (mPosition >= mBytes.length) {
+                throw new IllegalArgumentException("Truncated at " + mPosition);
+            }
+            return mBytes[mPosition++] & 0xff;
+        }
+
+        int readVarint() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint at " + mPosition);
+        }
+
+        /**
+         * Reads the length of something made of at least a byte per item, so that a corrupt
+         * length can't ask for more than there is.
+         */
+        int readCount() {
+            int count = readVarint();
+            if (count < 0 || count > mBytes.length - mPosition) {
+                throw new IllegalArgumentException("Bad count " + count + " at " + mPosition);
+            }
+            return count;
+        }
+
+        String readString() {
+            int length = readCount();
+            String value = new String(mBytes, mPosition, length, UTF_8);
+            mPosition += length;
+            return value;
+        }
+    }
+
+    public static final class Builder {
+        private final boolean mMetric;
+        private final List<int[]> mDays = new ArrayList<int[]>();
+        private final List<String> mDescriptions = new ArrayList<String>();
+
+        public Builder(boolean metric) {
+            mMetric = metric;
+        }
+
+        /**
+         * Adds the next day.  Days have to be added in order.
+         *
+         * @param high in Celsius
+         * @param low in Celsius
+         */
+        public Builder addDay(int julianDay, int weatherId, double high, double low,
+                String description) {
+            return addTenths(julianDay, weatherId,
+                    (int) Math.round(high * 10), (int) Math.round(low * 10), description);
+        }
+
+        private Builder copyDay(WatchForecast forecast, int day) {
+            return addTenths(forecast.mJulianDays[day], forecast.mWeatherIds[day],
+                    forecast.mHighs[day], forecast.mLows[day], forecast.mDescriptions[day]);
+        }
+
+        private Builder addTenths(int julianDay, int weatherId, int high, int low,
+                String description) {
+            if (!mDays.isEmpty() && julianDay < mDays.get(mDays.size() - 1)[0]) {
+                throw new IllegalArgumentException("Day " + julianDay + " is out of order");
+            }
+            mDays.add(new int[]{julianDay, weatherId, high, low});
+            mDescriptions.add(description == null ? "" : description);
+            return this;
+        }
+
+        public WatchForecast build() {
+            int size = mDays.size();
+            int[] julianDays = new int[size];
+            int[] weatherIds = new int[size];
+            int[] highs = new int[size];
+            int[] lows = new int[size];
+            for (int day = 0; day < size; day++) {
+                int[] values = mDays.get(day);
+                julianDays[day] = values[0];
+                weatherIds[day] = values[1];
+                highs[day] = values[2];
+                lows[day] = values[3];
+            }
+            return new WatchForecast(mMetric, julianDays, weatherIds, highs, lows,
+                    mDescriptions.toArray(new String[size]));
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Base64;
+import android.util.Log;
+
+import com.google.android.gms.wearable.DataMap;
+import com.google.android.gms.wearable.PutDataMapRequest;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Keeps the watches' copies of the forecast up to date, sending them as little as it can.
+ *
+ * Every forecast published gets the next version.  One that's the same as the last isn't sent at
+ * all.  Otherwise, when every watch has acknowledged the last version, only the days that changed
+ * go, as a delta item; when any hasn't, or the change can't be put as a delta, the whole forecast
+ * goes as a snapshot item.  A watch that gets a delta for a version it doesn't have acknowledges
+ * the version it does have, and is sent a snapshot of its own in reply.
+ *
+ * <pre>
+ *   /watch_data      snapshot item: version, forecast
+ *   /watch_delta     delta item: base_version, version, first_day, last_day, forecast (the
+ *                    changed days only, see {@link WatchForecast#changesFrom})
+ *   /watch_ack       message from a watch: the version it has, as 8 bytes
+ *   /watch_snapshot  message to a watch: the version, as 8 bytes, then the forecast
+ * </pre>
+ */
+public final class WatchSync {
+
+    private static final String LOG_TAG = WatchSync.class.getSimpleName();
+
+    static final String SNAPSHOT_PATH = "/watch_data";
+    static final String DELTA_PATH = "/watch_delta";
+    static final String ACK_PATH = "/watch_ack";
+    static final String SNAPSHOT_MESSAGE_PATH = "/watch_snapshot";
+
+    static final String KEY_VERSION = "version";
+    static final String KEY_BASE_VERSION = "base_version";
+    static final String KEY_FIRST_DAY = "first_day";
+    static final String KEY_LAST_DAY = "last_day";
+    static final String KEY_FORECAST = "forecast";
+
+    // A watch that hasn't been heard from in this long is taken to be gone for good, and no
+    // longer holds everyone else to snapshots.
+    private static final long NODE_EXPIRY_MILLIS = 14L * 24 * 60 * 60 * 1000;
+
+    private static final String PREFS_NAME = "watch_sync";
+    private static final String PREF_VERSION = "version";
+    private static final String PREF_FORECAST = "forecast";
+    // Followed by the node id.
+    private static final String PREF_ACKED_PREFIX = "acked_";
+    private static final String PREF_HEARD_PREFIX = "heard_";
+
+    private static WatchSync sInstance;
+
+    private final SharedPreferences mPrefs;
+    private final WearableBridge mBridge;
+
+    public static synchronized WatchSync getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WatchSync(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private WatchSync(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mBridge = WearableBridge.getInstance(context);
+    }
+
+    /**
+     * Sends the watches {@code forecast}, if it isn't what they have already.
+     *
+     * @param shownKey what the forecast has the watch face show, see
+     *                 {@link WearableBridge#put}.
+     */
+    public synchronized void publish(WatchForecast forecast, String shownKey) {
+        long version = mPrefs.getLong(PREF_VERSION, 0);
+        WatchForecast sent = loadSentForecast();
+        if (forecast.equals(sent)) {
+            Log.d(LOG_TAG, "Forecast unchanged at version " + version + ", not sending it");
+            return;
+        }
+        long nextVersion = version + 1;
+
+        PutDataMapRequest request = null;
+        if (sent != null && forecast.size() > 0 && allNodesHave(version)) {
+            WatchForecast changes = forecast.changesFrom(sent);
+            int firstDay = forecast.getJulianDay(0);
+            int lastDay = forecast.getJulianDay(forecast.size() - 1);
+            // Days that drop out from the middle can't be put as a delta.
+            if (WatchForecast.applyChanges(sent, changes, firstDay, lastDay).equals(forecast)) {
+                request = PutDataMapRequest.create(DELTA_PATH);
+                DataMap dataMap = request.getDataMap();
+                dataMap.putLong(KEY_BASE_VERSION, version);
+                dataMap.putLong(KEY_VERSION, nextVersion);
+                dataMap.putInt(KEY_FIRST_DAY, firstDay);
+                dataMap.putInt(KEY_LAST_DAY, lastDay);
+                dataMap.putByteArray(KEY_FORECAST, changes.toByteArray());
+                Log.d(LOG_TAG, "Sending version " + nextVersion + " as a delta of " +
+                        changes.size() + " days");
+            }
+        }
+        if (request == null) {
+            request = PutDataMapRequest.create(SNAPSHOT_PATH);
+            request.getDataMap().putLong(KEY_VERSION, nextVersion);
+            request.getDataMap().putByteArray(KEY_FORECAST, forecast.toByteArray());
+            Log.d(LOG_TAG, "Sending version " + nextVersion + " as a snapshot");
+        }
+
+        mPrefs.edit()
+                .putLong(PREF_VERSION, nextVersion)
+                .putString(PREF_FORECAST,
+                        Base64.encodeToString(forecast.toByteArray(), Base64.NO_WRAP))
+                .apply();
+        mBridge.put(request, shownKey);
+    }
+
+    /**
+     * Notes the version a watch has, and sends it the current one if that's not it.
+     */
+    public synchronized void onAck(String nodeId, long ackedVersion) {
+        mPrefs.edit()
+                .putLong(PREF_ACKED_PREFIX + nodeId, ackedVersion)
+                .putLong(PREF_HEARD_PREFIX + nodeId, System.currentTimeMillis())
+                .apply();
+        long version = mPrefs.getLong(PREF_VERSION, 0);
+        WatchForecast forecast = loadSentForecast();
+        if (ackedVersion != version && forecast != null) {
+            Log.d(LOG_TAG, nodeId + " has version " + ackedVersion + ", sending it " + version);
+            byte[] payload = forecast.toByteArray();
+            byte[] message = ByteBuffer.allocate(8 + payload.length)
+                    .putLong(version).put(payload).array();
+            mBridge.sendMessage(nodeId, SNAPSHOT_MESSAGE_PATH, message);
+        }
+    }
+
+    /**
+     * @return whether every watch heard from lately has acknowledged {@code version}, and there's
+     * at least one.
+     */
+    private boolean allNodesHave(long version) {
+        long now = System.currentTimeMillis();
+        boolean any = false;
+        for (Map.Entry<String, ?> entry : mPrefs.getAll().entrySet()) {
+            if (!entry.getKey().startsWith(PREF_ACKED_PREFIX)) {
+                continue;
+            }
+            String nodeId = entry.getKey().substring(PREF_ACKED_PREFIX.length());
+            if (now - mPrefs.getLong(PREF_HEARD_PREFIX + nodeId, 0) > NODE_EXPIRY_MILLIS) {
+                continue;
+            }
+            if ((Long) entry.getValue() != version) {
+                return false;
+            }
+            any = true;
+        }
+        return any;
+    }
+
+    private WatchForecast loadSentForecast() {
+        String encoded = mPrefs.getString(PREF_FORECAST, null);
+        if (encoded == null) {
+            return null;
+        }
+        try {
+            return WatchForecast.fromByteArray(Base64.decode(encoded, Base64.NO_WRAP));
+        } catch (IllegalArgumentException e) {
+            // From an older version of the app.  Starting over costs a snapshot.
+            Log.w(LOG_TAG, "Couldn't read the last forecast sent", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.MessageApi;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The phone's end of the data layer: one connection to Play Services, shared by every sync, that
+ * data items for the watch go out through.
+ *
+ * Items are queued by path, so one that's superseded before it goes out is never sent.  The
+ * connection is made when there's something to send, and kept until nothing has been for
+ * {@link #IDLE_DISCONNECT_MILLIS}; when it can't be made, it's tried again with exponential
+ * backoff, and the queue waits.  An item is only sent urgently, waking the watch, when it changes
+ * what the watch shows.  Messages to a particular watch wait for the connection the same way.
+ */
+public final class WearableBridge
+        implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
+
+    private static final String LOG_TAG = WearableBridge.class.getSimpleName();
+
+    private static final long INITIAL_BACKOFF_MILLIS = 2 * 1000;
+    private static final long MAX_BACKOFF_MILLIS = 5 * 60 * 1000;
+    private static final long IDLE_DISCONNECT_MILLIS = 2 * 60 * 1000;
+
+    private static final class Outgoing {
+        final PutDataMapRequest request;
+        final String shownKey;
+
+        Outgoing(PutDataMapRequest request, String shownKey) {
+            this.request = request;
+            this.shownKey = shownKey;
+        }
+    }
+
+    private static final class Message {
+        final String nodeId;
+        final String path;
+        final byte[] data;
+
+        Message(String nodeId, String path, byte[] data) {
+            this.nodeId = nodeId;
+            this.path = path;
+            this.data = data;
+        }
+    }
+
+    private static WearableBridge sInstance;
+
+    private final GoogleApiClient mClient;
+    private final Handler mHandler;
+
+    // Everything below is only touched on mHandler's thread, which the client's callbacks also
+    // come in on.
+    // Waiting to go out, by path, oldest first.
+    private final LinkedHashMap<String, Outgoing> mQueue = new LinkedHashMap<String, Outgoing>();
+    // Paths with a put in flight.  The next for the same path waits for it.
+    private final Set<String> mInFlight = new HashSet<String>();
+    // Waiting to go out, in order.  They aren't retried once sent.
+    private final List<Message> mMessages = new ArrayList<Message>();
+    // What the watch was last sent to show, whichever path it went on.
+    private String mShownKey;
+    private long mBackoffMillis = INITIAL_BACKOFF_MILLIS;
+    private boolean mRetryScheduled;
+
+    private final Runnable mRetry = new Runnable() {
+        @Override
+        public void run() {
+            mRetryScheduled = false;
+            flush();
+        }
+    };
+
+    private final Runnable mDisconnect = new Runnable() {
+        @Override
+        public void run() {
+            if (isIdle()) {
+                Log.d(LOG_TAG, "Idle, disconnecting");
+                mClient.disconnect();
+            }
+        }
+    };
+
+    public static synchronized WearableBridge getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WearableBridge(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private WearableBridge(Context context) {
+        HandlerThread thread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+        mClient = new GoogleApiClient.Builder(context)
+                .addApiIfAvailable(Wearable.API)
+                .addConnectionCallbacks(this)
+                .addOnConnectionFailedListener(this)
+                .setHandler(mHandler)
+                .build();
+    }
+
+    /**
+     * Queues a data item for the watch, in place of any for the same path that hasn't gone out.
+     *
+     * @param shownKey what the item has the watch show.  The item is sent urgently only when
+     *                 this differs from the last one sent.
+     */
+    public void put(PutDataMapRequest request, String shownKey) {
+        final String path = request.getUri().getPath();
+        final Outgoing outgoing = new Outgoing(request, shownKey);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // Goes to the back of the queue, behind what it didn't supersede.
+                mQueue.remove(path);
+                mQueue.put(path, outgoing);
+                mHandler.removeCallbacks(mDisconnect);
+                flush();
+            }
+        });
+    }
+
+    /**
+     * Sends a message to one watch, once connected.
+     */
+    public void sendMessage(String nodeId, String path, byte[] data) {
+        final Message message = new Message(nodeId, path, data);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mMessages.add(message);
+                mHandler.removeCallbacks(mDisconnect);
+                flush();
+            }
+        });
+    }
+
+    private boolean isIdle() {
+        return mQueue.isEmpty() && mInFlight.isEmpty() && mMessages.isEmpty();
+    }
+
+    private void flush() {
+        if (mRetryScheduled) {
+            return;
+        }
+        if (!mClient.isConnected()) {
+            if (!mClient.isConnecting()) {
+                mClient.connect();
+            }
+            return;
+        }
+        if (!mClient.hasConnectedApi(Wearable.API)) {
+            // There's no Wear on this device, so nothing will ever take these.
+            mQueue.clear();
+            mMessages.clear();
+        }
+        for (final Message message : mMessages) {
+            Wearable.MessageApi.sendMessage(mClient, message.nodeId, message.path, message.data)
+                    .setResultCallback(new ResultCallback<MessageApi.SendMessageResult>() {
+                        @Override
+                        public void onResult(@NonNull MessageApi.SendMessageResult result) {
+                            if (!result.getStatus().isSuccess()) {
+                                Log.w(LOG_TAG, "Couldn't send " + message.path + " to " +
+                                        message.nodeId + ", status: " +
+                                        result.getStatus().getStatusCode());
+                            }
+                        }
+                    });
+        }
+        mMessages.clear();
+        Iterator<Map.Entry<String, Outgoing>> entries = mQueue.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, Outgoing> entry = entries.next();
+            if (!mInFlight.contains(entry.getKey())) {
+                entries.remove();
+                send(entry.getKey(), entry.getValue());
+            }
+        }
+        if (isIdle()) {
+            mHandler.removeCallbacks(mDisconnect);
+            mHandler.postDelayed(mDisconnect, IDLE_DISCONNECT_MILLIS);
+        }
+    }
+
+    private void send(final String path, final Outgoing outgoing) {
+        PutDataRequest request = outgoing.request.asPutDataRequest();
+        final boolean urgent = !outgoing.shownKey.equals(mShownKey);
+        if (urgent) {
+            request.setUrgent();
+        }
+        mInFlight.add(path);
+        // Called from mHandler's thread, so the result comes back on it.
+        Wearable.DataApi.putDataItem(mClient, request).setResultCallback(
+                new ResultCallback<DataApi.DataItemResult>() {
+                    @Override
+                    public void onResult(@NonNull DataApi.DataItemResult result) {
+                        mInFlight.remove(path);
+                        if (result.getStatus().isSuccess()) {
+                            Log.d(LOG_TAG, "Put " + path + (urgent ? ", urgently" : ""));
+                            mShownKey = outgoing.shownKey;
+                            mBackoffMillis = INITIAL_BACKOFF_MILLIS;
+                        } else {
+                            Log.w(LOG_TAG, "Couldn't put " + path + ", status: " +
+                                    result.getStatus().getStatusCode() + " " +
+                                    result.getStatus().getStatusMessage());
+                            // Try it again later, unless it's been superseded.
+                            if (!mQueue.containsKey(path)) {
+                                mQueue.put(path, outgoing);
+                            }
+                            scheduleRetry();
+                        }
+                        flush();
+                    }
+                });
+    }
+
+    private void scheduleRetry() {
+        if (!mRetryScheduled) {
+            mRetryScheduled = true;
+            mHandler.postDelayed(mRetry, mBackoffMillis);
+            mBackoffMillis = Math.min(mBackoffMillis * 2, MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    @Override
+    public void onConnected(@Nullable Bundle connectionHint) {
+        mBackoffMillis = INITIAL_BACKOFF_MILLIS;
+        flush();
+    }
+
+    @Override
+    public void onConnectionSuspended(int cause) {
+        // The client reconnects by itself, and onConnected picks up where this left off.
+        Log.d(LOG_TAG, "Connection suspended, cause " + cause);
+    }
+
+    @Override
+    public void onConnectionFailed(@NonNull ConnectionResult result) {
+        Log.w(LOG_TAG, "Couldn't connect: " + result);
+        if (result.getErrorCode() == ConnectionResult.API_UNAVAILABLE) {
+            mQueue.clear();
+            mMessages.clear();
+            return;
+        }
+        scheduleRetry();
+    }
+}
@@ -21,34 +21,44 @@ import android.app.PendingIntent;
 import android.appwidget.AppWidgetManager;
 import android.content.ComponentName;
 import android.content.Intent;
-import android.database.Cursor;
-import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.util.DisplayMetrics;
+import android.util.SparseIntArray;
 import android.util.TypedValue;
 import android.widget.RemoteViews;
 
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
-import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.TodaySnapshot;
+
+import java.util.Arrays;
 
 /**
  * IntentService which handles updating all Today widgets with the latest data
+ *
+ * Widgets come in three layouts, by width.  Each update builds the RemoteViews for a layout once,
+ * and pushes it to every widget using that layout in one call.  A widget only gets pushed when
+ * what it would show differs from what it was last pushed: new weather, or a new layout.
  */
 public class TodayWidgetIntentService extends IntentService {
-    private static final String[] FORECAST_COLUMNS = {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
+
+    private static final int SMALL = 0;
+    private static final int DEFAULT = 1;
+    private static final int LARGE = 2;
+    // By the constants above.
+    private static final int[] LAYOUTS = {
+            R.layout.widget_today_small,
+            R.layout.widget_today,
+            R.layout.widget_today_large
     };
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_SHORT_DESC = 1;
-    private static final int INDEX_MAX_TEMP = 2;
-    private static final int INDEX_MIN_TEMP = 3;
+
+    // What was last pushed, so an update that changes nothing can be skipped.  Only touched on
+    // the service's worker thread, and forgotten with the process, after which everything is
+    // pushed again.
+    private static String sLastContent;
+    private static final SparseIntArray sLastLayouts = new SparseIntArray();
 
     public TodayWidgetIntentService() {
         super("TodayWidgetIntentService");
@@ -60,46 +70,58 @@ public class TodayWidgetIntentService extends IntentService {
         AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(this);
         int[] appWidgetIds = appWidgetManager.getAppWidgetIds(new ComponentName(this,
                 TodayWidgetProvider.class));
+        // The ones the host asked for, which it wants pushed whatever they show.
+        int[] requestedIds = intent.getIntArrayExtra(AppWidgetManager.EXTRA_APPWIDGET_IDS);
 
-        // Get today's data from the ContentProvider
-        String location = Utility.getPreferredLocation(this);
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                location, System.currentTimeMillis());
-        Cursor data = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
-                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
-        if (data == null) {
-            return;
-        }
-        if (!data.moveToFirst()) {
-            data.close();
+        // Get today's data, which the sync adapter has normally just published
+        TodaySnapshot today = TodaySnapshot.get(this);
+        if (today == null) {
             return;
         }
 
-        // Extract the weather data from the Cursor
-        int weatherId = data.getInt(INDEX_WEATHER_ID);
-        int weatherArtResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-        String description = data.getString(INDEX_SHORT_DESC);
-        double maxTemp = data.getDouble(INDEX_MAX_TEMP);
-        double minTemp = data.getDouble(INDEX_MIN_TEMP);
-        String formattedMaxTemperature = Utility.formatTemperature(this, maxTemp);
-        String formattedMinTemperature = Utility.formatTemperature(this, minTemp);
-        data.close();
-
-        // Perform this loop procedure for each Today widget
+        int weatherArtResourceId = Utility.getArtResourceForWeatherCondition(today.weatherId);
+        String description = today.description;
+        String formattedMaxTemperature = Utility.formatTemperature(this, today.high);
+        String formattedMinTemperature = Utility.formatTemperature(this, today.low);
+        // Everything the widgets show, so comparing it tells whether they need pushing.
+        String content = weatherArtResourceId + "|" + description + "|" +
+                formattedMaxTemperature + "|" + formattedMinTemperature;
+        boolean contentChanged = !content.equals(sLastContent);
+
+        // Sort the widgets that need pushing by layout
+        int defaultWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
+        int largeWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_large_width);
+        int[][] idsByLayout = new int[LAYOUTS.length][appWidgetIds.length];
+        int[] countByLayout = new int[LAYOUTS.length];
+        SparseIntArray layouts = new SparseIntArray(appWidgetIds.length);
         for (int appWidgetId : appWidgetIds) {
             // Find the correct layout based on the widget's width
-            int widgetWidth = getWidgetWidth(appWidgetManager, appWidgetId);
-            int defaultWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
-            int largeWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_large_width);
-            int layoutId;
+            int widgetWidth = getWidgetWidth(appWidgetManager, appWidgetId, defaultWidth);
+            int layout;
             if (widgetWidth >= largeWidth) {
-                layoutId = R.layout.widget_today_large;
+                layout = LARGE;
             } else if (widgetWidth >= defaultWidth) {
-                layoutId = R.layout.widget_today;
+                layout = DEFAULT;
             } else {
-                layoutId = R.layout.widget_today_small;
+                layout = SMALL;
+            }
+            layouts.put(appWidgetId, layout);
+            if (contentChanged || sLastLayouts.get(appWidgetId, -1) != layout ||
+                    contains(requestedIds, appWidgetId)) {
+                idsByLayout[layout][countByLayout[layout]++] = appWidgetId;
             }
-            RemoteViews views = new RemoteViews(getPackageName(), layoutId);
+        }
+
+        // Create an Intent to launch MainActivity
+        Intent launchIntent = new Intent(this, MainActivity.class);
+        PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, launchIntent, 0);
+
+        // Perform this procedure once for each layout in use
+        for (int layout = 0; layout < LAYOUTS.length; layout++) {
+            if (countByLayout[layout] == 0) {
+                continue;
+            }
+            RemoteViews views = new RemoteViews(getPackageName(), LAYOUTS[layout]);
 
             // Add the data to the RemoteViews
             views.setImageViewResource(R.id.widget_icon, weatherArtResourceId);
@@ -110,29 +132,45 @@ public class TodayWidgetIntentService extends IntentService {
             views.setTextViewText(R.id.widget_description, description);
             views.setTextViewText(R.id.widget_high_temperature, formattedMaxTemperature);
             views.setTextViewText(R.id.widget_low_temperature, formattedMinTemperature);
-
-            // Create an Intent to launch MainActivity
-            Intent launchIntent = new Intent(this, MainActivity.class);
-            PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, launchIntent, 0);
             views.setOnClickPendingIntent(R.id.widget, pendingIntent);
 
-            // Tell the AppWidgetManager to perform an update on the current app widget
-            appWidgetManager.updateAppWidget(appWidgetId, views);
+            // Tell the AppWidgetManager to perform an update on all the widgets with this layout
+            appWidgetManager.updateAppWidget(
+                    Arrays.copyOf(idsByLayout[layout], countByLayout[layout]), views);
+        }
+
+        sLastContent = content;
+        sLastLayouts.clear();
+        for (int i = 0; i < layouts.size(); i++) {
+            sLastLayouts.put(layouts.keyAt(i), layouts.valueAt(i));
+        }
+    }
+
+    private static boolean contains(int[] ids, int id) {
+        if (ids != null) {
+            for (int candidate : ids) {
+                if (candidate == id) {
+                    return true;
+                }
+            }
         }
+        return false;
     }
 
-    private int getWidgetWidth(AppWidgetManager appWidgetManager, int appWidgetId) {
+    private int getWidgetWidth(AppWidgetManager appWidgetManager, int appWidgetId,
+            int defaultWidth) {
         // Prior to Jelly Bean, widgets were always their default size
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
-            return getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
+            return defaultWidth;
         }
         // For Jelly Bean and higher devices, widgets can be resized - the current size can be
         // retrieved from the newly added App Widget Options
-        return getWidgetWidthFromOptions(appWidgetManager, appWidgetId);
+        return getWidgetWidthFromOptions(appWidgetManager, appWidgetId, defaultWidth);
     }
 
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
-    private int getWidgetWidthFromOptions(AppWidgetManager appWidgetManager, int appWidgetId) {
+    private int getWidgetWidthFromOptions(AppWidgetManager appWidgetManager, int appWidgetId,
+            int defaultWidth) {
         Bundle options = appWidgetManager.getAppWidgetOptions(appWidgetId);
         if (options.containsKey(AppWidgetManager.OPTION_APPWIDGET_MIN_WIDTH)) {
             int minWidthDp = options.getInt(AppWidgetManager.OPTION_APPWIDGET_MIN_WIDTH);
@@ -141,7 +179,7 @@ public class TodayWidgetIntentService extends IntentService {
             return (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, minWidthDp,
                     displayMetrics);
         }
-        return  getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
+        return defaultWidth;
     }
 
     @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1)
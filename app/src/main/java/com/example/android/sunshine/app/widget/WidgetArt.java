@@ -0,0 +1,93 @@
+package com.example.android.sunshine.app.widget;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.WeatherArtCache;
+import com.example.android.sunshine.app.data.ForecastSeries;
+
+/**
+ * The art for one refresh of the detail widget's list: a bitmap per weather id, at the size of
+ * the widget's icon, shared by every row that shows it.
+ *
+ * Every row's RemoteViews is parceled into the launcher with its bitmap in it, in a binder
+ * transaction of its own.  A bitmap that would make a row's transaction bigger than
+ * {@link #MAX_BYTES_PER_ROW} isn't used, and the rows that would show it use the icon resource
+ * instead, which costs a resource id.  The other rows keep their art.
+ */
+final class WidgetArt {
+
+    private static final String LOG_TAG = WidgetArt.class.getSimpleName();
+
+    // Well under the 1MB binder transaction buffer the launcher's process shares between
+    // everything it has in flight.
+    static final int MAX_BYTES_PER_ROW = 256 * 1024;
+
+    private static final WidgetArt NONE = new WidgetArt(new SparseArray<Bitmap>(0), 0);
+
+    private final SparseArray<Bitmap> mArt;
+    private final int mBytesPerRefresh;
+
+    private WidgetArt(SparseArray<Bitmap> art, int bytesPerRefresh) {
+        mArt = art;
+        mBytesPerRefresh = bytesPerRefresh;
+    }
+
+    /**
+     * Finds the art for every row of {@code forecast} in the {@link WeatherArtCache}, without
+     * waiting for any that isn't there.
+     */
+    static WidgetArt resolve(Context context, ForecastSeries forecast) {
+        if (Utility.usingLocalGraphics(context)) {
+            return NONE;
+        }
+        WeatherArtCache artCache = WeatherArtCache.getInstance(context);
+        int iconSize = context.getResources().getDimensionPixelSize(R.dimen.list_icon);
+        SparseArray<Bitmap> art = new SparseArray<Bitmap>();
+        int bytes = 0;
+        for (int i = 0; i < forecast.size(); i++) {
+            int weatherId = forecast.getWeatherId(i);
+            int index = art.indexOfKey(weatherId);
+            Bitmap bitmap;
+            if (index >= 0) {
+                bitmap = art.valueAt(index);
+            } else {
+                bitmap = artCache.peek(weatherId, iconSize, iconSize);
+                if (bitmap != null && getByteCount(bitmap) > MAX_BYTES_PER_ROW) {
+                    Log.w(LOG_TAG, "Art for weather " + weatherId + " would take " +
+                            getByteCount(bitmap) + " bytes a row, using the icon instead");
+                    bitmap = null;
+                }
+                art.put(weatherId, bitmap);
+            }
+            if (bitmap != null) {
+                bytes += getByteCount(bitmap);
+            }
+        }
+        return new WidgetArt(art, bytes);
+    }
+
+    private static int getByteCount(Bitmap bitmap) {
+        // Bitmap.getByteCount() is Honeycomb MR1 and up.
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    /**
+     * @return the art for {@code weatherId}, or null to use the icon resource.
+     */
+    Bitmap get(int weatherId) {
+        return mArt.get(weatherId);
+    }
+
+    /**
+     * @return how many bytes of bitmaps the rows send the launcher, once it has asked for all
+     * of them.
+     */
+    int getBytesPerRefresh() {
+        return mBytesPerRefresh;
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.android.sunshine.app;
+
+import android.os.Debug;
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+
+/**
+ * How long the watch face's frames take, and in debuggable builds how many objects they allocate,
+ * so a frame that allocates can be caught before it turns into a GC pause and a stutter in the
+ * seconds.  It's dumped with the service:
+ *
+ * <pre>
+ *   adb shell dumpsys activity service com.example.android.sunshine.app/.SunshineWatchFace
+ * </pre>
+ *
+ * and passing {@code reset} starts it over.  Frames are counted on the UI thread and dumped on a
+ * binder thread, so everything is locked; the lock is never contended while drawing.
+ */
+final class FrameStats {
+
+    private final boolean mCountAllocations;
+
+    private long mFrameStartNanos;
+    private int mFrameStartAllocations;
+
+    private long mFrames;
+    private long mTotalNanos;
+    private long mMaxNanos;
+    private long mAllocations;
+    private long mAllocatingFrames;
+
+    @SuppressWarnings("deprecation")
+    FrameStats(boolean countAllocations) {
+        mCountAllocations = countAllocations;
+        if (countAllocations) {
+            // Costs every allocation in the process a little, hence debuggable builds only.
+            Debug.startAllocCounting();
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    synchronized void beginFrame() {
+        if (mCountAllocations) {
+            mFrameStartAllocations = Debug.getThreadAllocCount();
+        }
+        mFrameStartNanos = SystemClock.elapsedRealtimeNanos();
+    }
+
+    @SuppressWarnings("deprecation")
+    synchronized void endFrame() {
+        long nanos = SystemClock.elapsedRealtimeNanos() - mFrameStartNanos;
+        mFrames++;
+        mTotalNanos += nanos;
+        mMaxNanos = Math.max(mMaxNanos, nanos);
+        if (mCountAllocations) {
+            int allocations = Debug.getThreadAllocCount() - mFrameStartAllocations;
+            if (allocations > 0) {
+                mAllocations += allocations;
+                mAllocatingFrames++;
+            }
+        }
+    }
+
+    synchronized void reset() {
+        mFrames = 0;
+        mTotalNanos = 0;
+        mMaxNanos = 0;
+        mAllocations = 0;
+        mAllocatingFrames = 0;
+    }
+
+    synchronized void dump(PrintWriter writer) {
+        writer.println("Frames: " + mFrames);
+        if (mFrames > 0) {
+            writer.println(String.format("Frame time: %.3fms average, %.3fms max",
+                    mTotalNanos / 1e6 / mFrames, mMaxNanos / 1e6));
+        }
+        if (mCountAllocations) {
+            writer.println("Allocations: " + mAllocations + " in " + mAllocatingFrames +
+                    " frames");
+        } else {
+            writer.println("Allocations: only counted in debuggable builds");
+        }
+    }
+}
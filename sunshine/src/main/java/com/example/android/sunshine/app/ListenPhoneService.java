@@ -1,72 +1,233 @@
 package com.example.android.sunshine.app;
 
-import android.app.Service;
+import android.content.Context;
 import android.content.Intent;
-import android.os.IBinder;
+import android.net.Uri;
 
 import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.wearable.DataEvent;
 import com.google.android.gms.wearable.DataEventBuffer;
+import com.google.android.gms.wearable.DataItem;
+import com.google.android.gms.wearable.DataItemBuffer;
 import com.google.android.gms.wearable.DataMap;
 import com.google.android.gms.wearable.DataMapItem;
 import com.google.android.gms.wearable.MessageEvent;
+import com.google.android.gms.wearable.Wearable;
 import com.google.android.gms.wearable.WearableListenerService;
 
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the {@link WatchForecastStore} up to date with the phone, and tells the watch face.
+ *
+ * The phone sends the whole forecast as a snapshot, or only the days that changed as a delta on
+ * a version the watch should have.  Either way, the watch acknowledges the version it ends up
+ * with; when that's not the one the phone sent, the phone replies with a snapshot message.
+ */
 public class ListenPhoneService extends WearableListenerService {
-	public final String LOG_TAG = "ListenPhoneService";
+	public static final String LOG_TAG = "ListenPhoneService";
     public static final String LOCAL_DATA = "local_data";
 
-    public static final String WEATHER_HIGH = "watch_high";
-    public static final String WEATHER_LOW = "watch_low";
-    public static final String WEATHER_DESC = "watch_desc";
-    public static final String WEATHER_ID = "watch_weather_id";
-    public static final String WATCH_TIME = "watch_time";
+    public static final String WATCH_FORECAST = "watch_forecast";
+
+    // What the phone sends, see its WatchSync.
+    private static final String SNAPSHOT_PATH = "/watch_data";
+    private static final String DELTA_PATH = "/watch_delta";
+    private static final String ACK_PATH = "/watch_ack";
+    private static final String SNAPSHOT_MESSAGE_PATH = "/watch_snapshot";
+    private static final String KEY_VERSION = "version";
+    private static final String KEY_BASE_VERSION = "base_version";
+    private static final String KEY_FIRST_DAY = "first_day";
+    private static final String KEY_LAST_DAY = "last_day";
+    private static final String KEY_FORECAST = "forecast";
+
+    private static final long CONNECT_TIMEOUT_SECONDS = 30;
+
+    private WatchForecastStore mStore;
+    private GoogleApiClient mGoogleApiClient;
 
     public ListenPhoneService() {
     }
 
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mStore = WatchForecastStore.getInstance(this);
+        mGoogleApiClient = new GoogleApiClient.Builder(this).addApi(Wearable.API).build();
+    }
+
+    @Override
+    public void onDestroy() {
+        mGoogleApiClient.disconnect();
+        super.onDestroy();
+    }
+
     @Override
     public void onMessageReceived(MessageEvent messageEvent) {
-        super.onMessageReceived(messageEvent);
         Log.d(LOG_TAG, "message received");
+        if (!SNAPSHOT_MESSAGE_PATH.equals(messageEvent.getPath())) {
+            return;
+        }
+        ByteBuffer message = ByteBuffer.wrap(messageEvent.getData());
+        if (message.remaining() < 8) {
+            return;
+        }
+        long version = message.getLong();
+        byte[] payload = new byte[message.remaining()];
+        message.get(payload);
+        applySnapshot(messageEvent.getSourceNodeId(), version, payload);
     }
 	
 	@Override
     public void onDataChanged(DataEventBuffer dataEvents) {
-		DataMap dataMap;
         Log.d(LOG_TAG, "data received");
         for (DataEvent event : dataEvents) {
+            if (event.getType() != DataEvent.TYPE_CHANGED) {
+                continue;
+            }
+            Uri uri = event.getDataItem().getUri();
+            // Items are addressed by the node that put them, which is the phone.
+            String phoneNodeId = uri.getHost();
+            DataMap dataMap = DataMapItem.fromDataItem(event.getDataItem()).getDataMap();
+            if (SNAPSHOT_PATH.equals(uri.getPath())) {
+                applySnapshot(phoneNodeId, dataMap.getLong(KEY_VERSION),
+                        dataMap.getByteArray(KEY_FORECAST));
+            } else if (DELTA_PATH.equals(uri.getPath())) {
+                applyDelta(phoneNodeId, dataMap);
+            }
+        }
+    }
+
+    private void applySnapshot(String phoneNodeId, long version, byte[] payload) {
+        WatchForecast forecast = mStore.applySnapshot(version, payload);
+        if (forecast != null) {
+            showForecast(this, forecast);
+        }
+        acknowledge(mGoogleApiClient, mStore, phoneNodeId);
+    }
 
-            
-            if (event.getType() == DataEvent.TYPE_CHANGED) {
-
-			    String formatHigh, formatLow, desc;
-				int weatherId;
-				long watchTime;
-                dataMap = DataMapItem.fromDataItem(event.getDataItem()).getDataMap();
-				
-				formatHigh=dataMap.getString(WEATHER_HIGH);
-                formatLow=dataMap.getString(WEATHER_LOW);
-                desc=dataMap.getString(WEATHER_DESC);
-                weatherId = dataMap.getInt(WEATHER_ID);
-                watchTime = dataMap.getLong(WATCH_TIME);
-				
-				Log.d(LOG_TAG, "Temperature: " + formatHigh + ", " + formatLow+" , "+desc);
-                LocalBroadcastManager localBroadcastManager = LocalBroadcastManager.getInstance(this);
-
-                Intent i = new Intent(LOCAL_DATA);
-                i.putExtra(WEATHER_HIGH, formatHigh);
-                i.putExtra(WEATHER_LOW, formatLow);
-                i.putExtra(WEATHER_DESC, desc);
-                i.putExtra(WEATHER_ID, weatherId);
-                i.putExtra(WATCH_TIME, watchTime);
-
-                localBroadcastManager.sendBroadcast(i);
-
-                
+    private void applyDelta(String phoneNodeId, DataMap dataMap) {
+        WatchForecast forecast = mStore.applyDelta(dataMap.getLong(KEY_BASE_VERSION),
+                dataMap.getLong(KEY_VERSION), dataMap.getByteArray(KEY_FORECAST),
+                dataMap.getInt(KEY_FIRST_DAY), dataMap.getInt(KEY_LAST_DAY));
+        if (forecast != null) {
+            showForecast(this, forecast);
+        }
+        // When it wasn't applied because a version was missed, the ack asks for a snapshot.
+        acknowledge(mGoogleApiClient, mStore, phoneNodeId);
+    }
+
+    /**
+     * Catches the store up with the items the phone has put, for when the listener hasn't heard
+     * them; after the watch app is installed, or its data cleared, say.  Only ever takes a
+     * version newer than the one stored, and when it does, acknowledges it to the phone and
+     * tells the watch face.  Waits on Play Services and the disk, so never on the main thread.
+     */
+    static void catchUp(Context context) {
+        GoogleApiClient client = new GoogleApiClient.Builder(context).addApi(Wearable.API).build();
+        ConnectionResult result = client.blockingConnect(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (!result.isSuccess()) {
+            // The store's forecast will have to do until the listener hears from the phone.
+            Log.d(LOG_TAG, "Couldn't connect to catch up: " + result);
+            return;
+        }
+        try {
+            WatchForecastStore store = WatchForecastStore.getInstance(context);
+            DataMap snapshot = null;
+            DataMap delta = null;
+            // Items are addressed by the node that put them, which is the phone.
+            String phoneNodeId = null;
+            DataItemBuffer dataItems = Wearable.DataApi.getDataItems(client).await();
+            try {
+                if (!dataItems.getStatus().isSuccess()) {
+                    return;
+                }
+                for (DataItem item : dataItems) {
+                    String path = item.getUri().getPath();
+                    if (SNAPSHOT_PATH.equals(path)) {
+                        snapshot = DataMapItem.fromDataItem(item).getDataMap();
+                        phoneNodeId = item.getUri().getHost();
+                    } else if (DELTA_PATH.equals(path)) {
+                        delta = DataMapItem.fromDataItem(item).getDataMap();
+                        phoneNodeId = item.getUri().getHost();
+                    }
+                }
+            } finally {
+                dataItems.release();
+            }
+            WatchForecast forecast = catchUp(store, snapshot, delta);
+            if (forecast != null) {
+                acknowledge(client, store, phoneNodeId);
+                showForecast(context, forecast);
+            }
+        } finally {
+            client.disconnect();
+        }
+    }
+
+    /**
+     * @return the forecast stored, or null if the items had nothing newer.
+     */
+    private static WatchForecast catchUp(WatchForecastStore store, DataMap snapshot,
+                                         DataMap delta) {
+        WatchForecast forecast = null;
+        if (snapshot != null && snapshot.getLong(KEY_VERSION) > store.getVersion()) {
+            forecast = store.applySnapshot(snapshot.getLong(KEY_VERSION),
+                    snapshot.getByteArray(KEY_FORECAST));
+        }
+        // The delta may be on the snapshot just taken.
+        if (delta != null && delta.getLong(KEY_VERSION) > store.getVersion()) {
+            WatchForecast applied = store.applyDelta(delta.getLong(KEY_BASE_VERSION),
+                    delta.getLong(KEY_VERSION), delta.getByteArray(KEY_FORECAST),
+                    delta.getInt(KEY_FIRST_DAY), delta.getInt(KEY_LAST_DAY));
+            if (applied != null) {
+                forecast = applied;
+            }
+        }
+        return forecast;
+    }
+
+    /**
+     * Tells the phone which version the watch has.  Only ever off the main thread, so it can
+     * wait for the connection.
+     */
+    private static void acknowledge(GoogleApiClient client, WatchForecastStore store,
+                                    String phoneNodeId) {
+        if (!client.isConnected()) {
+            ConnectionResult result = client.blockingConnect(
+                    CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (!result.isSuccess()) {
+                Log.w(LOG_TAG, "Couldn't connect to acknowledge: " + result);
+                return;
             }
-		}			
-	}
+        }
+        byte[] ack = ByteBuffer.allocate(8).putLong(store.getVersion()).array();
+        Wearable.MessageApi.sendMessage(client, phoneNodeId, ACK_PATH, ack);
+    }
+
+    /**
+     * Tells the watch face, if it's running, about a forecast just stored.  One that starts later
+     * reads it from the store.
+     */
+    static void showForecast(Context context, WatchForecast forecast) {
+        Intent i = new Intent(LOCAL_DATA);
+        i.putExtra(WATCH_FORECAST, forecast.toByteArray());
+        LocalBroadcastManager.getInstance(context).sendBroadcast(i);
+    }
+
+    /**
+     * @return the index of {@code julianDay} in {@code forecast}, or -1 if it has none.  The
+     * phone sends every day it has, so today is whichever one is today here.  A forecast that's
+     * missing today, because the phone's is stale, has -1 too, rather than another day's
+     * weather shown as today's.
+     */
+    static int indexOfDay(WatchForecast forecast, int julianDay) {
+        int day = forecast.indexOfJulianDay(julianDay);
+        return day != -1 && forecast.getJulianDay(day) == julianDay ? day : -1;
+    }
 }
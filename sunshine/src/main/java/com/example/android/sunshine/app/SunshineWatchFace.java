@@ -20,6 +20,7 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
@@ -28,6 +29,7 @@ import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.Typeface;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
@@ -40,7 +42,10 @@ import android.view.WindowInsets;
 
 import com.example.android.sunshine.app.R;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
+import java.util.Arrays;
 import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
 
@@ -63,11 +68,30 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
      */
     private static final int MSG_UPDATE_TIME = 0;
 
+    FrameStats mFrameStats;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mFrameStats = new FrameStats(
+                (getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0);
+    }
+
     @Override
     public Engine onCreateEngine() {
         return new Engine();
     }
 
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter out, String[] args) {
+        super.dump(fd, out, args);
+        mFrameStats.dump(out);
+        if (args != null && Arrays.asList(args).contains("reset")) {
+            mFrameStats.reset();
+            out.println("Reset");
+        }
+    }
+
     private static class EngineHandler extends Handler {
         private final WeakReference<SunshineWatchFace.Engine> mWeakReference;
 
@@ -109,8 +133,23 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
 
         String formatHigh = "", formatLow = "", desc = "";
         int weatherId=800;
-        long watchTime;
-
+        // Worked out from the above when they change, so drawing doesn't have to.
+        Bitmap mWeatherBitmap;
+        String mTemperatureText = "";
+        // H:MM:SS at most.
+        final char[] mTimeChars = new char[8];
+        // All of the days, for picking today again when the day changes.
+        WatchForecast mForecast;
+        // The Julian day the fields above are for.
+        int mShownJulianDay;
+
+        final BroadcastReceiver mForecastReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                showForecast(WatchForecast.fromByteArray(
+                        intent.getByteArrayExtra(ListenPhoneService.WATCH_FORECAST)));
+            }
+        };
 
         final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
             @Override
@@ -197,25 +236,118 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
                     (mBackgroundStormBitmap, (int) (mBackgroundStormBitmap.getWidth() * mScale),
                             (int) (mBackgroundStormBitmap.getHeight() * mScale), true);
 
-            LocalBroadcastManager.getInstance(getApplicationContext()).registerReceiver(new BroadcastReceiver() {
-                @Override
-                public void onReceive(Context context, Intent intent) {
+            LocalBroadcastManager.getInstance(getApplicationContext()).registerReceiver(
+                    mForecastReceiver, new IntentFilter(ListenPhoneService.LOCAL_DATA));
 
-                    formatHigh=intent.getStringExtra(ListenPhoneService.WEATHER_HIGH);
-                    formatLow=intent.getStringExtra(ListenPhoneService.WEATHER_LOW);
-                    desc=intent.getStringExtra(ListenPhoneService.WEATHER_DESC);
-                    weatherId = intent.getIntExtra(ListenPhoneService.WEATHER_ID, 0);
-                    watchTime = intent.getLongExtra(ListenPhoneService.WATCH_TIME, 0);
+            // Read now rather than waiting on the phone, so the first frame has the forecast.
+            showForecast(WatchForecastStore.getInstance(SunshineWatchFace.this).getForecast());
+            // And check, off the main thread, that the phone hasn't put anything newer than the
+            // listener has stored.  If it has, mForecastReceiver hears about it.
+            final Context context = getApplicationContext();
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ListenPhoneService.catchUp(context);
                 }
-            }, new IntentFilter(ListenPhoneService.LOCAL_DATA));
+            });
         }
 
         @Override
         public void onDestroy() {
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            LocalBroadcastManager.getInstance(getApplicationContext())
+                    .unregisterReceiver(mForecastReceiver);
             super.onDestroy();
         }
 
+        /**
+         * Shows today's day of {@code forecast}, or nothing when it has no today.
+         */
+        private void showForecast(WatchForecast forecast) {
+            mForecast = forecast;
+            mTime.setToNow();
+            mShownJulianDay = Time.getJulianDay(System.currentTimeMillis(), mTime.gmtoff);
+            int day = forecast == null
+                    ? -1 : ListenPhoneService.indexOfDay(forecast, mShownJulianDay);
+            if (day == -1) {
+                formatHigh = formatLow = desc = "";
+                weatherId = 800;
+            } else {
+                formatHigh = forecast.formatTemperature(forecast.getHigh(day));
+                formatLow = forecast.formatTemperature(forecast.getLow(day));
+                desc = forecast.getDescription(day);
+                weatherId = forecast.getWeatherId(day);
+            }
+            mWeatherBitmap = getBitmapForWeatherCondition(weatherId);
+            mTemperatureText = formatHigh + "  " + formatLow;
+            invalidate();
+        }
+
+        /**
+         * Shows the new day's forecast once it's past midnight, or the time zone has moved the
+         * date.  Checked on every tick, ambient or not, since an always-on face may never stop
+         * being visible.  Only allocates when the day has changed.
+         */
+        private void checkForNewDay() {
+            mTime.setToNow();
+            if (Time.getJulianDay(System.currentTimeMillis(), mTime.gmtoff) != mShownJulianDay) {
+                showForecast(mForecast);
+            }
+        }
+
+        /**
+         * @return the art for a weather condition from the OpenWeatherMap API, or null if there's
+         * none for it.
+         */
+        private Bitmap getBitmapForWeatherCondition(int weatherId) {
+            if (weatherId >= 200 && weatherId <= 232) {
+                return mBackgroundStormBitmap;
+            } else if (weatherId >= 300 && weatherId <= 321) {
+                return mBackgroundLightRainBitmap;
+            } else if (weatherId >= 500 && weatherId <= 504) {
+                return mBackgroundRainBitmap;
+            } else if (weatherId == 511) {
+                return mBackgroundSnowBitmap;
+            } else if (weatherId >= 520 && weatherId <= 531) {
+                return mBackgroundRainBitmap;
+            } else if (weatherId >= 600 && weatherId <= 622) {
+                return mBackgroundSnowBitmap;
+            } else if (weatherId >= 701 && weatherId <= 761) {
+                return mBackgroundFogBitmap;
+            } else if (weatherId == 761 || weatherId == 781) {
+                return mBackgroundStormBitmap;
+            } else if (weatherId == 800) {
+                return mBackgroundClearBitmap;
+            } else if (weatherId == 801) {
+                return mBackgroundLightCloudsBitmap;
+            } else if (weatherId >= 802 && weatherId <= 804) {
+                return mBackgroundCloudsBitmap;
+            }
+            return null;
+        }
+
+        /**
+         * Writes H:MM, or H:MM:SS, into {@link #mTimeChars}.
+         *
+         * @return the number of chars written.
+         */
+        private int formatTime(int hour, int minute, int second, boolean withSeconds) {
+            int length = 0;
+            if (hour >= 10) {
+                mTimeChars[length++] = (char) ('0' + hour / 10);
+            }
+            mTimeChars[length++] = (char) ('0' + hour % 10);
+            mTimeChars[length++] = ':';
+            mTimeChars[length++] = (char) ('0' + minute / 10);
+            mTimeChars[length++] = (char) ('0' + minute % 10);
+            if (withSeconds) {
+                mTimeChars[length++] = ':';
+                mTimeChars[length++] = (char) ('0' + second / 10);
+                mTimeChars[length++] = (char) ('0' + second % 10);
+            }
+            return length;
+        }
+
         private Paint createTextPaint(int textColor) {
             Paint paint = new Paint();
             paint.setColor(textColor);
@@ -234,6 +366,8 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
                 // Update time zone in case it changed while we weren't visible.
                 mTime.clear(TimeZone.getDefault().getID());
                 mTime.setToNow();
+                // And today, in case the day changed.
+                checkForNewDay();
             } else {
                 unregisterReceiver();
             }
@@ -284,6 +418,7 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
         @Override
         public void onTimeTick() {
             super.onTimeTick();
+            checkForNewDay();
             invalidate();
         }
 
@@ -329,47 +464,27 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
 
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
+            // Runs every second, so nothing in here allocates; see FrameStats.
+            mFrameStats.beginFrame();
+
             // Draw the background.
             if (isInAmbientMode()) {
                 canvas.drawColor(Color.BLACK);
             } else {
                 canvas.drawRect(0, 0, bounds.width(), bounds.height(), mBackgroundPaint);
-                if (weatherId >= 200 && weatherId <= 232) {
-                    canvas.drawBitmap(mBackgroundStormBitmap, mXOffset+60, mYOffesetTemp, mBackgroundPaint);
-                } else if (weatherId >= 300 && weatherId <= 321) {
-                    canvas.drawBitmap(mBackgroundLightRainBitmap, mXOffset+60, mYOffesetTemp, mBackgroundPaint);
-                } else if (weatherId >= 500 && weatherId <= 504) {
-                    canvas.drawBitmap(mBackgroundRainBitmap, mXOffset+60, mYOffesetTemp, mBackgroundPaint);
-                } else if (weatherId == 511) {
-                    canvas.drawBitmap(mBackgroundSnowBitmap, mXOffset+60, mYOffesetTemp, mBackgroundPaint);
-                } else if (weatherId >= 520 && weatherId <= 531) {
-                    canvas.drawBitmap(mBackgroundRainBitmap, mXOffset+60, mYOffesetTemp, mBackgroundPaint);
-                } else if (weatherId >= 600 && weatherId <= 622) {
-                    canvas.drawBitmap(mBackgroundSnowBitmap, mXOffset+60, mYOffesetTemp, mBackgroundPaint);
-                } else if (weatherId >= 701 && weatherId <= 761) {
-                    canvas.drawBitmap(mBackgroundFogBitmap, mXOffset+60, mYOffesetTemp, mBackgroundPaint);
-                } else if (weatherId == 761 || weatherId == 781) {
-                    canvas.drawBitmap(mBackgroundStormBitmap, mXOffset+60, mYOffesetTemp, mBackgroundPaint);
-                } else if (weatherId == 800) {
-                    canvas.drawBitmap(mBackgroundClearBitmap, mXOffset+60, mYOffesetTemp, mBackgroundPaint);
-                } else if (weatherId == 801) {
-                    canvas.drawBitmap(mBackgroundLightCloudsBitmap, mXOffset+60, mYOffesetTemp, mBackgroundPaint);
-                } else if (weatherId >= 802 && weatherId <= 804) {
-                    canvas.drawBitmap(mBackgroundCloudsBitmap, mXOffset+60, mYOffesetTemp, mBackgroundPaint);
+                if (mWeatherBitmap != null) {
+                    canvas.drawBitmap(mWeatherBitmap, mXOffset+60, mYOffesetTemp, mBackgroundPaint);
                 }
-
             }
 
             // Draw H:MM in ambient mode or H:MM:SS in interactive mode.
             mTime.setToNow();
-            String text = mAmbient
-                    ? String.format("%d:%02d", mTime.hour, mTime.minute)
-                    : String.format("%d:%02d:%02d", mTime.hour, mTime.minute, mTime.second);
-            canvas.drawText(text, mXOffset, mYOffset, mTextPaint);
-
-            canvas.drawText(formatHigh+"  " +formatLow, mXOffset+40, mYOffsetDate, mTextPaint);
+            int length = formatTime(mTime.hour, mTime.minute, mTime.second, !mAmbient);
+            canvas.drawText(mTimeChars, 0, length, mXOffset, mYOffset, mTextPaint);
 
+            canvas.drawText(mTemperatureText, mXOffset+40, mYOffsetDate, mTextPaint);
 
+            mFrameStats.endFrame();
         }
 
         /**
@@ -395,6 +510,7 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
          * Handle updating the time periodically in interactive mode.
          */
         private void handleUpdateTimeMessage() {
+            checkForNewDay();
             invalidate();
             if (shouldTimerBeRunning()) {
                 long timeMs = System.currentTimeMillis();
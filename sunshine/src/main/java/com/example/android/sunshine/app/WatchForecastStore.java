@@ -0,0 +1,121 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Base64;
+import android.util.Log;
+
+/**
+ * The watch's copy of the forecast, and the version of it the phone says it is.  The phone sends
+ * snapshots and deltas against a version, and this is what they're applied to.
+ *
+ * It's kept in one small preference, so the watch face can read it synchronously when it starts
+ * and draw the forecast in its first frame, before it's heard from the phone.  The listener and
+ * the watch face both write it, so there's one instance, and it's only changed while locked.
+ */
+final class WatchForecastStore {
+
+    private static final String LOG_TAG = "WatchForecastStore";
+
+    private static final String PREFS_NAME = "watch_forecast";
+    private static final String PREF_VERSION = "version";
+    private static final String PREF_FORECAST = "forecast";
+
+    private static WatchForecastStore sInstance;
+
+    private final SharedPreferences mPrefs;
+
+    static synchronized WatchForecastStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WatchForecastStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private WatchForecastStore(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return the version of the forecast stored, or 0 if there's none.
+     */
+    synchronized long getVersion() {
+        return mPrefs.contains(PREF_FORECAST) ? mPrefs.getLong(PREF_VERSION, 0) : 0;
+    }
+
+    /**
+     * @return the forecast stored, or null if there's none.
+     */
+    synchronized WatchForecast getForecast() {
+        String encoded = mPrefs.getString(PREF_FORECAST, null);
+        if (encoded == null) {
+            return null;
+        }
+        try {
+            return WatchForecast.fromByteArray(Base64.decode(encoded, Base64.NO_WRAP));
+        } catch (IllegalArgumentException e) {
+            Log.w(LOG_TAG, "Couldn't read the stored forecast", e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores a snapshot, unless it's the version stored already.
+     *
+     * @return the forecast stored, or null if it wasn't.
+     */
+    synchronized WatchForecast applySnapshot(long version, byte[] payload) {
+        WatchForecast forecast = decode(payload);
+        if (forecast == null || version == getVersion()) {
+            return null;
+        }
+        save(version, forecast);
+        Log.d(LOG_TAG, "Snapshot of version " + version);
+        return forecast;
+    }
+
+    /**
+     * Applies a delta, if it's on the version stored.
+     *
+     * @return the forecast stored, or null if it wasn't.
+     */
+    synchronized WatchForecast applyDelta(long baseVersion, long version, byte[] payload,
+                                          int firstJulianDay, int lastJulianDay) {
+        long storedVersion = getVersion();
+        WatchForecast changes = decode(payload);
+        if (changes == null || storedVersion != baseVersion || version == storedVersion) {
+            if (storedVersion != version) {
+                Log.d(LOG_TAG, "Delta on version " + baseVersion + ", but have " + storedVersion);
+            }
+            return null;
+        }
+        WatchForecast forecast = WatchForecast.applyChanges(getForecast(), changes,
+                firstJulianDay, lastJulianDay);
+        save(version, forecast);
+        Log.d(LOG_TAG, "Delta of " + changes.size() + " days to version " + version);
+        return forecast;
+    }
+
+    /**
+     * Stores {@code forecast} as {@code version}, before returning, so it's safe to acknowledge.
+     */
+    private void save(long version, WatchForecast forecast) {
+        mPrefs.edit()
+                .putLong(PREF_VERSION, version)
+                .putString(PREF_FORECAST,
+                        Base64.encodeToString(forecast.toByteArray(), Base64.NO_WRAP))
+                .commit();
+    }
+
+    private static WatchForecast decode(byte[] payload) {
+        if (payload == null) {
+            return null;
+        }
+        try {
+            return WatchForecast.fromByteArray(payload);
+        } catch (IllegalArgumentException e) {
+            Log.w(LOG_TAG, "Couldn't read the forecast", e);
+            return null;
+        }
+    }
+}